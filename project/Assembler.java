@@ -1,5 +1,10 @@
 package project;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+
 public interface Assembler {
 	
 	class DataPair {
@@ -39,4 +44,26 @@ public interface Assembler {
 	 * is saved, -1 if the input or output files cannot be opened, 
 	 * otherwise the line number of a reported error.
 	 */
+	
+	/**
+	 * Assembles source text to a Program in memory, with the same checks 
+	 * and error reports as assemble does for a file, but with no file 
+	 * I/O. The Program can be loaded into any number of machines.
+	 * @param source the assembly language source
+	 * @param error the StringBuilder to store the description 
+	 * of the error or errors reported
+	 * @return the Program, or null if an error that stops a file being 
+	 * written was found
+	 * @throws IOException if source cannot be read
+	 */
+	Program assemble(Reader source, StringBuilder error) throws IOException;
+	
+	default Program assemble(CharSequence source, StringBuilder error) {
+		try {
+			return assemble(new StringReader(source.toString()), error);
+		} catch (IOException e) {
+			// a StringReader is never closed under us
+			throw new UncheckedIOException(e);
+		}
+	}
 }
@@ -0,0 +1,553 @@
+package project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Second tier of the Machine. Counts how often the interpreter enters
+ * each basic block and, once a block has been entered threshold times,
+ * translates it to a hidden class. A block is a straight run of
+ * instructions that cannot jump or halt (LOD, STO, ADD, SUB, MUL, DIV,
+ * AND, NOT, CMPL, CMPZ, NOP). The JUMP, JMPZ or HALT that ends a block
+ * is left to the interpreter. The generated code never throws: a pointer
+ * outside data or a zero divisor makes the block stop before that
+ * instruction, and the interpreter then reports the fault. Blocks for a
+ * flat Memory index its data array directly, blocks for a paged or
+ * off-heap Memory read through Memory.read, which the JIT inlines.
+ * <p>
+ * Any change to the code in Memory throws away every compiled block.
+ * The generated classes hold no state, so machines running the same code
+ * share them through a bounded cache keyed by the block's code.
+ */
+class BlockCompiler {
+
+	private static final String BLOCK_CLASS = "project/CompiledBlockImpl";
+	private static final String RUN_DESCRIPTOR = "([ILproject/Memory;I[I)I";
+
+	// JVM opcodes used by the generated code
+	private static final int ICONST_0 = 0x03, LDC_W = 0x13, ILOAD = 0x15,
+			ALOAD = 0x19, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c,
+			ILOAD_3 = 0x1d, ISTORE = 0x36, ISTORE_3 = 0x3e, IALOAD = 0x2e, IASTORE = 0x4f,
+			IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c,
+			IFNE = 0x9a, IFLT = 0x9b, IF_ICMPLT = 0xa1, ARRAYLENGTH = 0xbe,
+			IRETURN = 0xac, RETURN = 0xb1, INVOKEVIRTUAL = 0xb6,
+			INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+	private static final int SHARED_BLOCKS = 4096;
+	private static final Map<BlockKey, CompiledBlock> SHARED = Collections.synchronizedMap(
+			new LinkedHashMap<BlockKey, CompiledBlock>(64, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<BlockKey, CompiledBlock> eldest) {
+					return size() > SHARED_BLOCKS;
+				}
+			});
+
+	// a block's code plus the data size its range checks were made against
+	// and whether it indexes a flat data array
+	private static class BlockKey {
+
+		private long[] code;
+		private int dataSize;
+		private boolean flat;
+
+		BlockKey(long[] code, int dataSize, boolean flat) {
+			this.code = code;
+			this.dataSize = dataSize;
+			this.flat = flat;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof BlockKey && dataSize == ((BlockKey)o).dataSize
+					&& flat == ((BlockKey)o).flat && Arrays.equals(code, ((BlockKey)o).code);
+		}
+
+		public int hashCode() {
+			return 31*Arrays.hashCode(code) + dataSize + (flat ? 1 << 30 : 0);
+		}
+
+	}
+
+	private int threshold;
+	private CompiledBlock[] blocks;
+	private int[] lengths;
+	private int[] counts;
+	private int codeVersion;
+	private int[] exit = new int[1];
+
+	BlockCompiler(int threshold, Memory memory) {
+
+		this.threshold = threshold;
+		reset(memory);
+
+	}
+
+	int getThreshold() {
+		return threshold;
+	}
+
+	private void reset(Memory memory) {
+
+		int size = memory.getProgramSize();
+		blocks = new CompiledBlock[size];
+		lengths = new int[size];
+		counts = new int[size];
+		codeVersion = memory.getCodeVersion();
+
+	}
+
+	/**
+	 * Called by the interpreter when pc is the start of a basic block.
+	 * @return the compiled block starting at pc, or null if there is none yet
+	 */
+	CompiledBlock enter(int pc, Memory memory) {
+
+		if (memory.getCodeVersion() != codeVersion) {
+			reset(memory);
+		}
+
+		if (blocks[pc] == null && counts[pc]++ == threshold) {
+
+			compile(pc, memory);
+
+		}
+
+		return blocks[pc];
+
+	}
+
+	int length(int pc) {
+		return lengths[pc];
+	}
+
+	int[] getExit() {
+		return exit;
+	}
+
+	private void compile(int start, Memory memory) {
+
+		long[] code = memory.getPackedCode();
+		int size = memory.getProgramSize();
+		int dataSize = memory.getDataSize();
+		boolean flat = memory.getFlatData() != null;
+		int end = start;
+
+		while (end < size && compilable(code[end], dataSize)) {
+			end++;
+		}
+
+		// a single instruction gains nothing over the interpreter
+		if (end - start < 2) return;
+
+		BlockKey key = new BlockKey(Arrays.copyOfRange(code, start, end), dataSize, flat);
+		CompiledBlock block = SHARED.get(key);
+
+		try {
+
+			if (block == null) {
+
+				MethodHandles.Lookup lookup = MethodHandles.lookup()
+						.defineHiddenClass(classBytes(code, start, end, dataSize, flat), true);
+				block = (CompiledBlock) lookup
+						.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+						.invoke();
+				SHARED.put(key, block);
+
+			}
+			blocks[start] = block;
+			lengths[start] = end - start;
+
+		}
+		catch (Throwable e) {
+
+			// leave the block to the interpreter
+			//e.printStackTrace();
+
+		}
+
+	}
+
+	// true if the instruction can go in a block: it cannot jump or halt and
+	// the only faults it can raise depend on run time values
+	private static boolean compilable(long slot, int dataSize) {
+
+		int decoded = Memory.decoded(slot);
+		if ((decoded & Instruction.PARITY_OK) == 0) return false;
+
+		int flags = Instruction.decodedFlags(decoded);
+		boolean inRange = Memory.arg(slot) >= 0 && Memory.arg(slot) < dataSize;
+
+		switch (Instruction.decodedOp(decoded)) {
+		case Instruction.NOP:
+		case Instruction.NOT:
+			return flags == 0;
+		case Instruction.LOD:
+		case Instruction.ADD:
+		case Instruction.SUB:
+		case Instruction.MUL:
+			return flags == 2 || (flags == 0 || flags == 4) && inRange;
+		case Instruction.DIV:
+			return flags == 2 ? Memory.arg(slot) != 0 : (flags == 0 || flags == 4) && inRange;
+		case Instruction.STO:
+			return (flags == 0 || flags == 4) && inRange;
+		case Instruction.AND:
+			return flags == 2 || flags == 0 && inRange;
+		case Instruction.CMPL:
+		case Instruction.CMPZ:
+			return flags == 0 && inRange;
+		default:
+			return false;
+		}
+
+	}
+
+	// helpers called by the generated code
+
+	static int not(int accum) {
+		return accum == 0 ? 1 : 0;
+	}
+
+	static int and(int accum, int value) {
+		return accum != 0 && value != 0 ? 1 : 0;
+	}
+
+	static int cmpl(int value) {
+		return value < 0 ? 1 : 0;
+	}
+
+	static int cmpz(int value) {
+		return value == 0 ? 1 : 0;
+	}
+
+	/**
+	 * Builds a class implementing CompiledBlock whose run method executes
+	 * code[start] to code[end - 1]. Locals of run: 1 data, 2 memory,
+	 * 3 accum, 4 exit, 5 operand. The class file is version 49 so that
+	 * the branches of the fault checks need no stack map frames.
+	 */
+	private static byte[] classBytes(long[] code, int start, int end, int dataSize, boolean flat)
+			throws IOException {
+
+		ConstantPool pool = new ConstantPool();
+		Data data = new Data(pool, dataSize, flat);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		for (int i = start; i < end; i++) {
+
+			int decoded = Memory.decoded(code[i]);
+			int flags = Instruction.decodedFlags(decoded);
+			int arg = Memory.arg(code[i]);
+			int op = Instruction.decodedOp(decoded);
+
+			switch (op) {
+			case Instruction.NOP:
+				break;
+			case Instruction.NOT:
+				body.write(ILOAD_3);
+				invoke(body, INVOKESTATIC, pool.methodRef("project/BlockCompiler", "not", "(I)I"));
+				body.write(ISTORE_3);
+				break;
+			case Instruction.LOD:
+				loadOperand(body, pool, data, flags, arg, i - start);
+				body.write(ISTORE_3);
+				break;
+			case Instruction.STO:
+				if (flags == 0) {
+					body.write(ALOAD_2);
+					ldc(body, pool, arg);
+				} else {
+					loadOperand(body, pool, data, 0, arg, i - start);
+					checkPointer(body, pool, data, i - start);
+					body.write(ALOAD_2);
+					body.write(ILOAD);
+					body.write(5);
+				}
+				body.write(ILOAD_3);
+				invoke(body, INVOKEVIRTUAL, pool.methodRef("project/Memory", "setData", "(II)V"));
+				break;
+			case Instruction.AND:
+				body.write(ILOAD_3);
+				loadOperand(body, pool, data, flags, arg, i - start);
+				invoke(body, INVOKESTATIC, pool.methodRef("project/BlockCompiler", "and", "(II)I"));
+				body.write(ISTORE_3);
+				break;
+			case Instruction.CMPL:
+				loadOperand(body, pool, data, flags, arg, i - start);
+				invoke(body, INVOKESTATIC, pool.methodRef("project/BlockCompiler", "cmpl", "(I)I"));
+				body.write(ISTORE_3);
+				break;
+			case Instruction.CMPZ:
+				loadOperand(body, pool, data, flags, arg, i - start);
+				invoke(body, INVOKESTATIC, pool.methodRef("project/BlockCompiler", "cmpz", "(I)I"));
+				body.write(ISTORE_3);
+				break;
+			default: // ADD, SUB, MUL, DIV
+				loadOperand(body, pool, data, flags, arg, i - start);
+				body.write(ISTORE);
+				body.write(5);
+				if (op == Instruction.DIV) {
+					body.write(ILOAD);
+					body.write(5);
+					branch(body, IFNE, 12); // over the exit
+					exit(body, pool, i - start);
+				}
+				body.write(ILOAD_3);
+				body.write(ILOAD);
+				body.write(5);
+				body.write(op == Instruction.ADD ? IADD : op == Instruction.SUB ? ISUB
+						: op == Instruction.MUL ? IMUL : IDIV);
+				body.write(ISTORE_3);
+			}
+
+		}
+
+		body.write(ILOAD_3);
+		body.write(IRETURN);
+
+		ByteArrayOutputStream init = new ByteArrayOutputStream();
+		init.write(ALOAD_0);
+		invoke(init, INVOKESPECIAL, pool.methodRef("java/lang/Object", "<init>", "()V"));
+		init.write(RETURN);
+
+		int thisClass = pool.classRef(BLOCK_CLASS);
+		int superClass = pool.classRef("java/lang/Object");
+		int blockInterface = pool.classRef("project/CompiledBlock");
+		int initName = pool.utf8("<init>");
+		int initDescriptor = pool.utf8("()V");
+		int runName = pool.utf8("run");
+		int runDescriptor = pool.utf8(RUN_DESCRIPTOR);
+		int codeName = pool.utf8("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+		pool.writeTo(out);
+		out.writeShort(0x0031); // public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(blockInterface);
+		out.writeShort(0); // fields
+		out.writeShort(2); // methods
+		writeMethod(out, initName, initDescriptor, codeName, 1, 1, init.toByteArray());
+		writeMethod(out, runName, runDescriptor, codeName, 8, 6, body.toByteArray());
+		out.writeShort(0); // attributes
+		return bytes.toByteArray();
+
+	}
+
+	// how the generated code reads data: from the flat array in local 1, or
+	// through Memory.read for a paged or off-heap memory, where local 1 is null
+	private static class Data {
+
+		private boolean paged;
+		private int size;
+		private int read;
+
+		Data(ConstantPool pool, int size, boolean flat) {
+
+			this.size = size;
+			paged = !flat;
+			if (paged) {
+				read = pool.methodRef("project/Memory", "read", "(I)I");
+			}
+
+		}
+
+	}
+
+	// pushes the operand selected by the addressing flags: data[arg], arg or data[data[arg]].
+	// An indirect read leaves the block at offset when the pointer is outside data.
+	private static void loadOperand(ByteArrayOutputStream body, ConstantPool pool, Data data, int flags,
+			int arg, int offset) {
+
+		if (flags == 2) {
+			ldc(body, pool, arg);
+			return;
+		}
+		if (data.paged) {
+			body.write(ALOAD_2);
+			ldc(body, pool, arg);
+			invoke(body, INVOKEVIRTUAL, data.read);
+		} else {
+			body.write(ALOAD_1);
+			ldc(body, pool, arg);
+			body.write(IALOAD);
+		}
+		if (flags == 4) {
+
+			checkPointer(body, pool, data, offset);
+			if (data.paged) {
+				body.write(ALOAD_2);
+				body.write(ILOAD);
+				body.write(5);
+				invoke(body, INVOKEVIRTUAL, data.read);
+			} else {
+				body.write(ALOAD_1);
+				body.write(ILOAD);
+				body.write(5);
+				body.write(IALOAD);
+			}
+
+		}
+
+	}
+
+	// stores the pointer on the stack in local 5 and leaves the block at offset
+	// when it is outside data
+	private static void checkPointer(ByteArrayOutputStream body, ConstantPool pool, Data data, int offset) {
+
+		body.write(ISTORE);
+		body.write(5);
+		body.write(ILOAD);
+		body.write(5);
+		branch(body, IFLT, data.paged ? 11 : 10); // to the exit
+		body.write(ILOAD);
+		body.write(5);
+		if (data.paged) {
+			ldc(body, pool, data.size);
+		} else {
+			body.write(ALOAD_1);
+			body.write(ARRAYLENGTH);
+		}
+		branch(body, IF_ICMPLT, 12); // over the exit
+		exit(body, pool, offset);
+
+	}
+
+	// 9 bytes that store offset in exit[0] and return the accumulator
+	private static void exit(ByteArrayOutputStream body, ConstantPool pool, int offset) {
+
+		body.write(ALOAD);
+		body.write(4);
+		body.write(ICONST_0);
+		ldc(body, pool, offset);
+		body.write(IASTORE);
+		body.write(ILOAD_3);
+		body.write(IRETURN);
+
+	}
+
+	private static void branch(ByteArrayOutputStream body, int opcode, int jump) {
+
+		body.write(opcode);
+		body.write(jump >> 8);
+		body.write(jump);
+
+	}
+
+	private static void ldc(ByteArrayOutputStream body, ConstantPool pool, int value) {
+
+		int index = pool.integer(value);
+		body.write(LDC_W);
+		body.write(index >> 8);
+		body.write(index);
+
+	}
+
+	private static void invoke(ByteArrayOutputStream body, int opcode, int methodRef) {
+
+		body.write(opcode);
+		body.write(methodRef >> 8);
+		body.write(methodRef);
+
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+			int maxStack, int maxLocals, byte[] code) throws IOException {
+
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+
+	}
+
+	private static class ConstantPool {
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private DataOutputStream out = new DataOutputStream(bytes);
+		private Map<String, Integer> indices = new HashMap<>();
+		private int count = 1;
+
+		private int add(String key) {
+			Integer index = indices.get(key);
+			return index == null ? 0 : index;
+		}
+
+		private int added(String key) {
+			indices.put(key, count);
+			return count++;
+		}
+
+		int utf8(String s) {
+			int index = add("U" + s);
+			if (index != 0) return index;
+			write(() -> { out.writeByte(1); out.writeUTF(s); });
+			return added("U" + s);
+		}
+
+		int integer(int value) {
+			int index = add("I" + value);
+			if (index != 0) return index;
+			write(() -> { out.writeByte(3); out.writeInt(value); });
+			return added("I" + value);
+		}
+
+		int classRef(String name) {
+			int index = add("C" + name);
+			if (index != 0) return index;
+			int nameIndex = utf8(name);
+			write(() -> { out.writeByte(7); out.writeShort(nameIndex); });
+			return added("C" + name);
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			String key = "M" + owner + "." + name + descriptor;
+			int index = add(key);
+			if (index != 0) return index;
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			int nameAndType = added("N" + name + descriptor);
+			write(() -> { out.writeByte(12); out.writeShort(nameIndex); out.writeShort(descriptorIndex); });
+			write(() -> { out.writeByte(10); out.writeShort(ownerIndex); out.writeShort(nameAndType); });
+			return added(key);
+		}
+
+		void writeTo(DataOutputStream target) throws IOException {
+			target.writeShort(count);
+			bytes.writeTo(target);
+		}
+
+		private interface Entry {
+			void write() throws IOException;
+		}
+
+		private void write(Entry entry) {
+			try {
+				entry.write();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+package project;
+
+/**
+ * A basic block translated to JVM bytecode by BlockCompiler. The
+ * implementations are hidden classes, one per block.
+ */
+interface CompiledBlock {
+
+	/**
+	 * Executes the whole block.
+	 * @param data the data array of a flat memory, null for a paged or off-heap one
+	 * @param memory the memory, for stores through setData
+	 * @param accum the accumulator on entry
+	 * @param exit if an instruction would fault, the block stops before
+	 * it and stores its offset in the block in element 0, which is
+	 * otherwise left alone
+	 * @return the accumulator on exit
+	 */
+	int run(int[] data, Memory memory, int accum, int[] exit);
+
+}
@@ -0,0 +1,47 @@
+package project;
+
+/**
+ * Where a Memory keeps its data cells, in pages of Memory.PAGE_SIZE
+ * cells. Memory checks every index against the data size before it gets
+ * here, and does the bookkeeping for the views itself.
+ */
+interface DataStore {
+
+	int read(int index);
+
+	void write(int index, int value);
+
+	/**
+	 * Sets every cell to 0.
+	 */
+	void clear();
+
+	/**
+	 * @return the data array if the store is one flat int[], else null
+	 */
+	int[] getFlatData();
+
+	/**
+	 * @return the number of pages that have been allocated
+	 */
+	int getAllocatedPages();
+
+	/**
+	 * A store of the same kind holding the cells as they are now, which
+	 * shares the pages with this one. A page either store writes after
+	 * this is copied first, so neither sees the other's writes.
+	 */
+	DataStore snapshot();
+
+	/**
+	 * Sets every cell to its value in snapshot, a store of the same kind
+	 * and size, sharing its pages the same way.
+	 */
+	void restore(DataStore snapshot);
+
+	/**
+	 * Releases the pages. The store must not be written afterwards.
+	 */
+	void close();
+
+}
@@ -1,304 +1,520 @@
 package project;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
 
+/**
+ * Validates and encodes pasm source in one pass, reading each line once
+ * and splitting it into tokens once. The encoding is SimpleAssembler's.
+ * The file version writes the program only if no error sets the returned
+ * line, the in-memory version then returns it.
+ */
 public class FullAssembler implements Assembler {
 
 	private boolean readingCode;
-	
+	private int pexeVersion = Pexe.VERSION_1;
+
+	private List<Instruction> code;
+	private List<DataPair> data;
+	// a line whose mode error is reported without failing the assembly
+	// but whose argument cannot be encoded, thrown if nothing else fails
+	private NumberFormatException unencodable;
+
+	/**
+	 * Sets the pexe version assemble writes: Pexe.VERSION_1, the default,
+	 * which every Loader reads, or the smaller, checked Pexe.VERSION_2,
+	 * which only Loaders that know it read.
+	 */
+	public void setPexeVersion(int version) {
+
+		Pexe.checkVersion(version);
+		pexeVersion = version;
+
+	}
+
+	public int getPexeVersion() {
+		return pexeVersion;
+	}
+
 	@Override
 	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
 
-		readingCode = true;
-		
 		if (error == null) {
-			
+
 			throw new IllegalArgumentException("Coding error: The error buffer is null");
-			
-		}
-		
-		
-		List<String> lines = new ArrayList<>();
-		
-		try (Scanner in = new Scanner(new File(inputFileName))) {
-			
-			while (in.hasNextLine()) {
-				
-				lines.add(in.nextLine());
-				
-			}
-			
+
+		}
+
+		try (BufferedReader in = new BufferedReader(new FileReader(new File(inputFileName)))) {
+
+			return assemble(in, new File(outputFileName), error);
+
 		} catch (FileNotFoundException e) {
-			
+
 			error.append("Unable to open the source file\n");
 			return -1;
-			
+
+		} catch (IOException e) {
+
+			error.append("Unable to open the source file\n");
+			return -1;
+
+		}
+
+	}
+
+	/**
+	 * Assembles the lines of in to output, for a subclass that has read
+	 * them already.
+	 * @throws IOException only if in cannot be read
+	 */
+	int assemble(BufferedReader in, File output, StringBuilder error) throws IOException {
+
+		int retLine = check(in, error);
+
+		//Errors found
+		if (retLine != -1) {
+
+			return retLine;
+
+		}
+
+		Program program = program();
+		try {
+
+			write(output, program);
+
+		}
+		catch (IOException e) {
+
+			e.printStackTrace();
+
 		}
-		
-		
+
+		return 0;
+
+	}
+
+	@Override
+	public Program assemble(Reader source, StringBuilder error) throws IOException {
+
+		if (error == null) {
+
+			throw new IllegalArgumentException("Coding error: The error buffer is null");
+
+		}
+
+		BufferedReader in = source instanceof BufferedReader ? (BufferedReader)source : new BufferedReader(source);
+		return check(in, error) == -1 ? program() : null;
+
+	}
+
+	/**
+	 * Checks and encodes every line of in.
+	 * @return the line number of the last error that fails the assembly,
+	 * or -1 if there is none
+	 */
+	private int check(BufferedReader in, StringBuilder error) throws IOException {
+
+		readingCode = true;
+		code = new ArrayList<>();
+		data = new ArrayList<>();
+		unencodable = null;
+
 		boolean hasPrevBlank = false;
 		int currentLine = 0;
 		int currentBlankLine = 0;
 		int retLine = -1;
-		
-		for (String line : lines) {
+
+		String text;
+		while ((text = in.readLine()) != null) {
+
 			currentLine++;
-			
+
 			//Blank line
-			if (line.trim().length() == 0 && !hasPrevBlank) {
-				
-				hasPrevBlank = true;
-				currentBlankLine = currentLine;
-				
+			if (isBlank(text)) {
+
+				if (!hasPrevBlank) {
+
+					hasPrevBlank = true;
+					currentBlankLine = currentLine;
+
+				}
+				continue;
+
 			}
-			else if (hasPrevBlank && line.trim().length() != 0) {
-				
+			else if (hasPrevBlank) {
+
 				error.append("Error at line " + currentBlankLine + ": Illegal blank line\n");
 				retLine = currentBlankLine;
 				hasPrevBlank = false;
-				
+
 			}
-			
-			//Blank space
-			char[] lineChars = line.toCharArray();
-			
-			if (line.trim().length() != 0 && (lineChars[0] == ' ' || lineChars[0] == '\t' && !hasPrevBlank)) {
-				
-				error.append("Error at line " + currentLine + ": Line begins with illegal blank space\n");
+
+			if (add(checkLine(text, readingCode), currentLine, error)) {
+
 				retLine = currentLine;
-				continue;
-				
+
 			}
-			
-			//DATA
-			if (line.trim().toUpperCase().equals("DATA") && readingCode) {
-				
-				readingCode = false;
-				
-				if (!line.trim().equals("DATA")) {
-					
-					error.append("Error at line " + currentLine + ": DATA not in all uppercase\n");
-					retLine = currentLine;
-					continue;
-					
-				}
-				
+
+		}
+
+		return retLine;
+
+	}
+
+	/**
+	 * Adds what one line gave to the program and reports its error.
+	 * @return true if the line has an error that fails the assembly
+	 */
+	boolean add(Line line, int currentLine, StringBuilder error) {
+
+		if (line.message != null) {
+
+			error.append("Error at line " + currentLine + ": " + line.message + "\n");
+
+		}
+		if (line.separator) {
+
+			readingCode = false;
+
+		}
+		if (line.instruction != null) {
+
+			code.add(line.instruction);
+
+		}
+		if (line.pair != null) {
+
+			data.add(line.pair);
+
+		}
+		if (line.unencodable != null && unencodable == null) {
+
+			unencodable = line.unencodable;
+
+		}
+		return line.fails;
+
+	}
+
+	// checks a non-blank line, the place for a subclass to keep what it gave
+	Line checkLine(String text, boolean readingCode) {
+
+		return line(text, readingCode);
+
+	}
+
+	// writes the assembled program, the place for a subclass to write it another way
+	void write(File file, Program program) throws IOException {
+
+		Pexe.write(file, program, pexeVersion);
+
+	}
+
+	// the checked program, which has no error that fails the assembly
+	Program program() {
+
+		if (unencodable != null) {
+
+			throw unencodable;
+
+		}
+		return Program.of(code, data);
+
+	}
+
+	/**
+	 * What checking one non-blank line gives. It depends only on the text
+	 * and the section the line is in, not on where the line is, so it can
+	 * be kept for the next time the same line is assembled.
+	 */
+	static final class Line {
+
+		// the error without its line number, or null
+		final String message;
+		// true if the error stops the program being written
+		final boolean fails;
+		// true for the DATA line that ends the code section
+		final boolean separator;
+		final Instruction instruction;
+		final DataPair pair;
+		// a line whose mode error is reported without failing the assembly
+		// but whose argument cannot be encoded, thrown if nothing else fails
+		final NumberFormatException unencodable;
+
+		private Line(String message, boolean fails, boolean separator, Instruction instruction,
+				DataPair pair, NumberFormatException unencodable) {
+
+			this.message = message;
+			this.fails = fails;
+			this.separator = separator;
+			this.instruction = instruction;
+			this.pair = pair;
+			this.unencodable = unencodable;
+
+		}
+
+	}
+
+	private static Line error(String message) {
+
+		return new Line(message, true, false, null, null, null);
+
+	}
+
+	private static final Line SEPARATOR = new Line(null, false, true, null, null, null);
+
+	// the same as line.trim().length() == 0
+	static boolean isBlank(String line) {
+
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) > ' ') return false;
+		}
+		return true;
+
+	}
+
+	// the same tokens as line.trim().split("\\s+"), none for a blank line
+	private static String[] tokens(String line) {
+
+		int start = 0;
+		int end = line.length();
+		while (start < end && line.charAt(start) <= ' ') start++;
+		while (end > start && line.charAt(end - 1) <= ' ') end--;
+
+		if (start == end) {
+
+			return new String[0];
+
+		}
+
+		List<String> parts = new ArrayList<>(2);
+		int i = start;
+		while (i < end) {
+
+			int from = i;
+			while (i < end && !isSpace(line.charAt(i))) i++;
+			parts.add(line.substring(from, i));
+			while (i < end && isSpace(line.charAt(i))) i++;
+
+		}
+		return parts.toArray(new String[parts.size()]);
+
+	}
+
+	// the characters of the regex \s
+	private static boolean isSpace(char c) {
+
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+
+	}
+
+	private static boolean isData(String[] parts) {
+
+		return parts.length == 1 && parts[0].toUpperCase().equals("DATA");
+
+	}
+
+	/**
+	 * Checks and encodes a non-blank line of the code section, or of the
+	 * data section if readingCode is false.
+	 */
+	static Line line(String line, boolean readingCode) {
+
+		String[] parts = tokens(line);
+
+		//Blank space
+		if (line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+
+			return error("Line begins with illegal blank space");
+
+		}
+
+		return readingCode ? code(parts) : data(parts);
+
+	}
+
+	private static Line code(String[] parts) {
+
+		//DATA
+		if (isData(parts)) {
+
+			if (!parts[0].equals("DATA")) {
+
+				return new Line("DATA not in all uppercase", true, true, null, null, null);
+
 			}
-			else if (line.trim().toUpperCase().equals("DATA") && !readingCode) {
-				
-				error.append("Error at line " + currentLine + ": Second DATA separator\n");
-				retLine = currentLine;
-				continue;
-				
+			return SEPARATOR;
+
+		}
+
+		//Key Set
+		Integer opcode = Instruction.OPCODES.get(parts[0]);
+		if (opcode == null) {
+
+			if (Instruction.OPCODES.keySet().contains(parts[0].toUpperCase())) {
+
+				return error("Mnemonic not in all uppercase");
+
 			}
-			
-			//Key Set
-			String[] parts = line.trim().split("\\s+");
-			
-			if (line.trim().length() != 0 && !Instruction.OPCODES.keySet().contains(parts[0]) && readingCode) {
-				
-				if (Instruction.OPCODES.keySet().contains(parts[0].toUpperCase())) {
-					
-					error.append("Error at line " + currentLine + ": Mnemonic not in all uppercase\n");
-					retLine = currentLine;
-					continue;
-					
-				}
-				else {
-					
-					error.append("Error at line " + currentLine + ": Invalid mnemonic\n");
-					retLine = currentLine;
-					continue;
-					
-				}
-				
+			return error("Invalid mnemonic");
+
+		}
+
+		//No Argument
+		boolean noArg = Instruction.NO_ARG_MNEMONICS.contains(parts[0]);
+		if (noArg && parts.length != 1) {
+
+			return error("Mnemonic does not require an argument");
+
+		}
+		else if (!noArg && parts.length == 1) {
+
+			return error("Mnemonic requires an argument");
+
+		}
+		else if (!noArg && parts.length > 2) {
+
+			return error("Mnemonic has too many arguments");
+
+		}
+		else if (noArg) {
+
+			int opPart = 8*opcode;
+			opPart += Instruction.numOnes(opPart)%2;
+			return new Line(null, false, false, new Instruction((byte)opPart, 0), null, null);
+
+		}
+
+		int flags = 0;
+		String hex = parts[1];
+
+		//Addressing errors, which are reported but still assembled
+		String mode = null;
+		if (hex.charAt(0) == 'M') {
+
+			flags = 2;
+			if (!Instruction.IMM_MNEMONICS.contains(parts[0])) mode = "immediate";
+
+		}
+		else if (hex.charAt(0) == 'N') {
+
+			flags = 4;
+			if (!Instruction.IND_MNEMONICS.contains(parts[0])) mode = "indirect";
+
+		}
+		else if (hex.charAt(0) == 'J') {
+
+			flags = 6;
+			if (!Instruction.IMM_MNEMONICS.contains(parts[0])) mode = "special jump";
+
+		}
+		if (flags != 0) {
+
+			hex = hex.substring(1);
+
+		}
+
+		String message = mode == null ? null : "Mnemonic does not allow " + mode + " mode";
+
+		//Hex number
+		int arg;
+		try {
+
+			arg = Integer.parseInt(hex, 16);
+
+		}
+		catch (NumberFormatException e) {
+
+			if (mode == null) {
+
+				return error("Argument is not a hex number");
+
 			}
-			
-			//No Argument
-			else if (line.trim().length() != 0 && readingCode) {
-				
-				if (Instruction.NO_ARG_MNEMONICS.contains(parts[0]) && parts.length != 1) {
-					
-					error.append("Error at line " + currentLine + ": Mnemonic does not require an argument\n");
-					retLine = currentLine;
-					continue;
-					
-				}
-				else if (!Instruction.NO_ARG_MNEMONICS.contains(parts[0]) && parts.length == 1) {
-					
-					error.append("Error at line " + currentLine + ": Mnemonic requires an argument\n");
-					retLine = currentLine;
-					continue;
-					
-				}
-				else if (!Instruction.NO_ARG_MNEMONICS.contains(parts[0]) && parts.length > 2) {
-					
-					error.append("Error at line " + currentLine + ": Mnemonic has too many arguments\n");
-					retLine = currentLine;
-					continue;
-					
-				}
-				else if (!Instruction.NO_ARG_MNEMONICS.contains(parts[0])) {
-					
-					//Hex number
-					try {
-						
-						int flags = 0;
-						
-						if (parts[1].charAt(0) == 'M') {
-							
-							flags = 2;
-							parts[1] = parts[1].substring(1);
-							
-							//Addressing errors
-							if (!Instruction.IMM_MNEMONICS.contains(parts[0])) {
-								
-								error.append("Error at line " + currentLine + ": Mnemonic does not allow immediate mode\n");
-								continue;
-								
-							}
-							
-						}
-						else if (parts[1].charAt(0) == 'N') {
-							
-							flags = 4;
-							parts[1] = parts[1].substring(1);
-							
-							if (!Instruction.IND_MNEMONICS.contains(parts[0])) {
-								
-								error.append("Error at line " + currentLine + ": Mnemonic does not allow indirect mode\n");
-								continue;
-								
-							}
-							
-						}
-						else if (parts[1].charAt(0) == 'J') {
-							
-							flags = 6;
-							parts[1] = parts[1].substring(1);
-							
-							if (!Instruction.IMM_MNEMONICS.contains(parts[0])) {
-								
-								error.append("Error at line " + currentLine + ": Mnemonic does not allow special jump mode\n");
-								continue;
-								
-							}
-							
-						}
-						
-						int arg = Integer.parseInt(parts[1],16);
-						int opPart = 8*Instruction.OPCODES.get(parts[0]) + flags;
-						
-						opPart += Instruction.numOnes(opPart)%2;
-						
-					}
-					catch (NumberFormatException e) {
-						
-						error.append("Error at line " + currentLine + ": Argument is not a hex number\n");
-						retLine = currentLine;
-						continue;
-						
-					}
-					
-				}
-				
+			return new Line(message, false, false, null, null, e);
+
+		}
+
+		int opPart = 8*opcode + flags;
+		opPart += Instruction.numOnes(opPart)%2;
+		return new Line(message, false, false, new Instruction((byte)opPart, arg), null, null);
+
+	}
+
+	private static Line data(String[] parts) {
+
+		if (isData(parts)) {
+
+			return error("Second DATA separator");
+
+		}
+
+		boolean hasMissingValue = parts.length != 2;
+		boolean hasIllegalAddress = false;
+		boolean hasIllegalValue = false;
+		int address = 0;
+		int value = 0;
+
+		try {
+
+			address = Integer.parseInt(parts[0],16);
+
+		}
+		catch (NumberFormatException e) {
+
+			hasIllegalAddress = true;
+
+		}
+
+		if (parts.length > 1) {
+
+			try {
+
+				value = Integer.parseInt(parts[1],16);
+
 			}
-			
-			//Data lines
-			if (!readingCode && !line.trim().equals("DATA") && !line.trim().equals("")) {
-				
-				boolean hasMissingValue = false;
-				boolean hasIllegalAddress = false;
-				boolean hasIllegalValue = false;
-				
-				if (parts.length != 2) {
-					
-					retLine = currentLine;
-					hasMissingValue = true;
-					
-				}
-				
-				try {
-					
-					int address = Integer.parseInt(parts[0],16);
-					
-				}
-				catch (NumberFormatException e) {
-					
-					retLine = currentLine;
-					hasIllegalAddress = true;
-					
-				}
-				
-				try {
-					
-					int value = Integer.parseInt(parts[1],16);
-					
-				}
-				catch (NumberFormatException e) {
-					
-					retLine = currentLine;
-					hasIllegalValue = true;
-					
-				}
-				catch (ArrayIndexOutOfBoundsException e) {};
-				
-				if (hasIllegalAddress && hasMissingValue) {
-					
-					error.append("Error at line " + currentLine + ": Data has non-numeric memory address and is missing value\n");
-					continue;
-					
-				}
-				else if (hasIllegalAddress && hasIllegalValue) {
-					
-					error.append("Error at line " + currentLine + ": Data has non-numeric memory address and non-numeric value\n");
-					continue;
-					
-				}
-				else if (hasIllegalValue) {
-					
-					error.append("Error at line " + currentLine + ": Data has non-numeric value\n");
-					continue;
-					
-				}
-				else if (hasIllegalAddress) {
-					
-					error.append("Error at line " + currentLine + ": Data has non-numeric memory address\n");
-					continue;
-					
-				}
-				else if (hasMissingValue) {
-					
-					error.append("Error at line " + currentLine + ": Data is missing value\n");
-					continue;
-					
-				}
-				
-				
+			catch (NumberFormatException e) {
+
+				hasIllegalValue = true;
+
 			}
-			
-			
-		}
-		
-		//No errors found
-		if (retLine == -1) {
-				
-			new SimpleAssembler().assemble(inputFileName, outputFileName, error);
-			return 0;
-			
-		}
-		
-		//Errors found
-		else {
-			
-			return retLine;
-			
+
 		}
-		
+
+		if (hasIllegalAddress && hasMissingValue) {
+
+			return error("Data has non-numeric memory address and is missing value");
+
+		}
+		else if (hasIllegalAddress && hasIllegalValue) {
+
+			return error("Data has non-numeric memory address and non-numeric value");
+
+		}
+		else if (hasIllegalValue) {
+
+			return error("Data has non-numeric value");
+
+		}
+		else if (hasIllegalAddress) {
+
+			return error("Data has non-numeric memory address");
+
+		}
+		else if (hasMissingValue) {
+
+			return error("Data is missing value");
+
+		}
+		return new Line(null, false, false, null, new DataPair(address, value), null);
+
 	}
-	
+
 }
@@ -0,0 +1,107 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+
+public class FullAssemblerTester {
+
+	@TempDir
+	File dir;
+
+	private String source(String text) throws IOException {
+		File file = new File(dir, "source.pasm");
+		Files.writeString(file.toPath(), text);
+		return file.getPath();
+	}
+
+	@Test
+	// a correct program gives the same file as SimpleAssembler
+	public void testSameAsSimple() throws Exception {
+		String source = source("LOD M0\nSUB 1\nSTO N0\nJMPZ J2\nJUMP -4\nHALT\nDATA\n0 5\n1A -1\n");
+		File full = new File(dir, "full.pexe");
+		File simple = new File(dir, "simple.pexe");
+		StringBuilder error = new StringBuilder();
+		assertEquals(0, new FullAssembler().assemble(source, full.getPath(), error));
+		new SimpleAssembler().assemble(source, simple.getPath(), new StringBuilder());
+		assertAll (
+				() -> assertEquals("", error.toString()),
+				() -> assertArrayEquals(Files.readAllBytes(simple.toPath()), Files.readAllBytes(full.toPath()))
+				);
+	}
+
+	@Test
+	// every line is checked, the last line with an error is returned and nothing is written
+	public void testErrors() throws Exception {
+		String source = source("LOD M0\n\n lod 1\nlod 1\nFOO 1\nHALT 1\nADD\nADD 1 2\nADD 1G\n"
+				+ "data\nDATA\nG 1\n1\n1 G\n");
+		File pexe = new File(dir, "errors.pexe");
+		StringBuilder error = new StringBuilder();
+		assertEquals(14, new FullAssembler().assemble(source, pexe.getPath(), error));
+		assertAll (
+				() -> assertEquals("Error at line 2: Illegal blank line\n"
+						+ "Error at line 3: Line begins with illegal blank space\n"
+						+ "Error at line 4: Mnemonic not in all uppercase\n"
+						+ "Error at line 5: Invalid mnemonic\n"
+						+ "Error at line 6: Mnemonic does not require an argument\n"
+						+ "Error at line 7: Mnemonic requires an argument\n"
+						+ "Error at line 8: Mnemonic has too many arguments\n"
+						+ "Error at line 9: Argument is not a hex number\n"
+						+ "Error at line 10: DATA not in all uppercase\n"
+						+ "Error at line 11: Second DATA separator\n"
+						+ "Error at line 12: Data has non-numeric memory address\n"
+						+ "Error at line 13: Data is missing value\n"
+						+ "Error at line 14: Data has non-numeric value\n", error.toString()),
+				() -> assertFalse(pexe.exists())
+				);
+	}
+
+	@Test
+	// a mode the mnemonic does not allow is reported, yet the program is still written
+	public void testModeErrors() throws Exception {
+		File pexe = new File(dir, "mode.pexe");
+		StringBuilder error = new StringBuilder();
+		assertEquals(0, new FullAssembler().assemble(source("STO M1\nHALT\n"), pexe.getPath(), error));
+		assertEquals("Error at line 1: Mnemonic does not allow immediate mode\n", error.toString());
+		Machine m = new Machine(() -> {});
+		assertEquals("2", Loader.load(m, pexe));
+		assertEquals(1, m.getCode(0).arg);
+		// with an argument that cannot be encoded either, as SimpleAssembler did
+		assertThrows(NumberFormatException.class,
+				() -> new FullAssembler().assemble(source("STO MG\n"), pexe.getPath(), new StringBuilder()));
+		assertEquals(-1, new FullAssembler().assemble(new File(dir, "missing.pasm").getPath(), pexe.getPath(), error));
+	}
+
+	@Test
+	// source text assembles in memory to the program the file version writes
+	public void testInMemory() throws Exception {
+		String text = "LOD M2\nADD N0\nHALT\nDATA\n0 1\n1 3\n";
+		File pexe = new File(dir, "memory.pexe");
+		new FullAssembler().assemble(source(text), pexe.getPath(), new StringBuilder());
+		StringBuilder error = new StringBuilder();
+		Program full = new FullAssembler().assemble(text, error);
+		Program simple = new SimpleAssembler().assemble(new StringReader(text), error);
+		Machine m = new Machine(() -> {});
+		full.load(m);
+		assertAll (
+				() -> assertEquals("", error.toString()),
+				() -> assertArrayEquals(Files.readAllBytes(pexe.toPath()), Pexe.encode(full, Pexe.VERSION_1)),
+				() -> assertArrayEquals(Pexe.encode(full), Pexe.encode(simple)),
+				() -> assertEquals(RunResult.HaltReason.HALTED, m.runUntilHalt().getReason()),
+				() -> assertEquals(5, m.getAccum())
+				);
+		assertNull(new FullAssembler().assemble("LOD 1\nlod 2\n", error));
+		assertEquals("Error at line 2: Mnemonic not in all uppercase\n", error.toString());
+	}
+
+}
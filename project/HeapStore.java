@@ -0,0 +1,147 @@
+package project;
+
+import static project.Memory.PAGE_BITS;
+import static project.Memory.PAGE_MASK;
+import static project.Memory.PAGE_SIZE;
+
+import java.util.Arrays;
+
+/**
+ * Data in int[] pages on the Java heap. In a store bigger than one page
+ * every untouched page is the shared ZERO_PAGE and a page is only
+ * allocated when first written. Pages shared with a snapshot are copied
+ * when first written in the same way. A store of at most PAGE_SIZE cells
+ * is a single flat array, which the interpreter and compiled blocks index
+ * directly, so it is never shared: snapshot and restore copy it.
+ */
+class HeapStore implements DataStore {
+
+	// every untouched page of a paged store, never written
+	private static final int[] ZERO_PAGE = new int[PAGE_SIZE];
+
+	private int size;
+	private int[][] pages;
+	// a page is this store's own to write when its owner is epoch, else it
+	// is ZERO_PAGE or shared with a snapshot, and is copied first
+	private int[] owners;
+	private int epoch = 1;
+
+	HeapStore(int size) {
+
+		this.size = size;
+		pages = new int[(int)((size + (long)PAGE_MASK) >>> PAGE_BITS)][];
+		owners = new int[pages.length];
+		if (size <= PAGE_SIZE) {
+			pages[0] = new int[size];
+			owners[0] = epoch;
+		}
+		else {
+			Arrays.fill(pages, ZERO_PAGE);
+		}
+
+	}
+
+	// a store that owns none of pages
+	private HeapStore(int size, int[][] pages) {
+
+		this.size = size;
+		this.pages = pages;
+		owners = new int[pages.length];
+
+	}
+
+	@Override
+	public int read(int index) {
+		return pages[index >>> PAGE_BITS][index & PAGE_MASK];
+	}
+
+	@Override
+	public void write(int index, int value) {
+
+		int p = index >>> PAGE_BITS;
+		int[] page = owners[p] == epoch ? pages[p] : own(p);
+		page[index & PAGE_MASK] = value;
+
+	}
+
+	// gives page p a copy of its own, a new page if it was never written
+	private int[] own(int p) {
+
+		owners[p] = epoch;
+		return pages[p] = pages[p] == ZERO_PAGE ? new int[PAGE_SIZE] : pages[p].clone();
+
+	}
+
+	@Override
+	public void clear() {
+
+		if (size <= PAGE_SIZE) {
+			Arrays.fill(pages[0], 0);
+		}
+		else {
+			// hand the pages back, they are all zero again
+			Arrays.fill(pages, ZERO_PAGE);
+			share();
+		}
+
+	}
+
+	// no page is this store's own any more, they are all copied when next written
+	private void share() {
+
+		if (++epoch == 0) {
+			Arrays.fill(owners, 0);
+			epoch = 1;
+		}
+
+	}
+
+	@Override
+	public DataStore snapshot() {
+
+		if (size <= PAGE_SIZE) {
+			HeapStore copy = new HeapStore(size, new int[][] {pages[0].clone()});
+			copy.owners[0] = copy.epoch;
+			return copy;
+		}
+		share();
+		return new HeapStore(size, pages.clone());
+
+	}
+
+	@Override
+	public void restore(DataStore snapshot) {
+
+		HeapStore from = (HeapStore)snapshot;
+		if (size <= PAGE_SIZE) {
+			System.arraycopy(from.pages[0], 0, pages[0], 0, size);
+		}
+		else {
+			System.arraycopy(from.pages, 0, pages, 0, pages.length);
+			share();
+		}
+
+	}
+
+	@Override
+	public int[] getFlatData() {
+		return size <= PAGE_SIZE ? pages[0] : null;
+	}
+
+	@Override
+	public int getAllocatedPages() {
+
+		int count = 0;
+		for (int[] page : pages) {
+			if (page != ZERO_PAGE) count++;
+		}
+		return count;
+
+	}
+
+	@Override
+	public void close() {
+		// the pages go with the rest of the heap
+	}
+
+}
@@ -0,0 +1,388 @@
+package project;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A FullAssembler for assembling the same source again and again, as the
+ * GUI does after each edit. What each line gave is kept by its text, so
+ * only edited lines are checked and encoded again. The last source
+ * assembled to a file without a message is also kept with the image
+ * written and the code slot or data pair each line gave. When the next
+ * source only edits at most MAX_LINES lines in place, each still an
+ * instruction or a data pair, and the file has not been changed since,
+ * only those lines are checked and only their slots are written over the
+ * file. Reading the
+ * source and finding the edited lines still compares every line. Any
+ * other change, like a line inserted, which moves every later slot, is
+ * assembled and written whole. The reports and the files are
+ * FullAssembler's.
+ */
+public class IncrementalAssembler extends FullAssembler {
+
+	static final int MAX_LINES = 16;
+
+	// what the lines of the last assembly gave, by their text
+	private Map<String, Line> codeLines = new HashMap<>();
+	private Map<String, Line> dataLines = new HashMap<>();
+	// the lines of this assembly, which are all that is kept for the next
+	private Map<String, Line> nextCodeLines = new HashMap<>();
+	private Map<String, Line> nextDataLines = new HashMap<>();
+
+	private int reused;
+	private int checked;
+
+	// the source last assembled to written, null if there is none to patch,
+	// what each line gave, null for a blank line, and the code slot or
+	// data pair it gave, -1 for neither
+	private List<String> texts;
+	private Line[] results;
+	private int[] slots;
+	private int dataStart;
+	private int count;
+	// the lines checked by the whole assembly under way, in order
+	private List<Line> recorded;
+
+	// the last file written, to patch if it has not been changed since
+	private File written;
+	private byte[] writtenBytes;
+	private int writtenVersion;
+	private FileTime writtenTime;
+	private Object writtenKey;
+	private int patched;
+
+	@Override
+	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+
+		if (error == null) {
+
+			throw new IllegalArgumentException("Coding error: The error buffer is null");
+
+		}
+
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(new File(inputFileName)))) {
+
+			String text;
+			while ((text = in.readLine()) != null) {
+				lines.add(text);
+			}
+
+		}
+		catch (IOException e) {
+
+			error.append("Unable to open the source file\n");
+			return -1;
+
+		}
+
+		File target = new File(outputFileName).getAbsoluteFile();
+		if (patch(lines, target)) {
+
+			return 0;
+
+		}
+
+		texts = null;
+		recorded = new ArrayList<>();
+		int length = error.length();
+		int retLine;
+		try {
+
+			StringBuilder source = new StringBuilder();
+			for (String text : lines) {
+				source.append(text).append('\n');
+			}
+			retLine = assemble(new BufferedReader(new StringReader(source.toString())), target, error);
+			if (retLine == 0 && error.length() == length && target.equals(written)) {
+				index(lines);
+			}
+
+		}
+		catch (IOException e) {
+
+			// a StringReader is always read
+			throw new UncheckedIOException(e);
+
+		}
+		finally {
+
+			recorded = null;
+			keep();
+
+		}
+		return retLine;
+
+	}
+
+	@Override
+	public Program assemble(Reader source, StringBuilder error) throws IOException {
+
+		try {
+
+			return super.assemble(source, error);
+
+		}
+		finally {
+
+			keep();
+
+		}
+
+	}
+
+	private void keep() {
+
+		codeLines = nextCodeLines;
+		dataLines = nextDataLines;
+		nextCodeLines = new HashMap<>();
+		nextDataLines = new HashMap<>();
+
+	}
+
+	@Override
+	Line checkLine(String text, boolean readingCode) {
+
+		Map<String, Line> lines = readingCode ? codeLines : dataLines;
+		Map<String, Line> next = readingCode ? nextCodeLines : nextDataLines;
+
+		Line line = lines.get(text);
+		if (line == null) {
+
+			line = next.get(text);
+
+		}
+		if (line == null) {
+
+			line = line(text, readingCode);
+			checked++;
+
+		}
+		else {
+
+			reused++;
+
+		}
+		next.put(text, line);
+		if (recorded != null) {
+
+			recorded.add(line);
+
+		}
+		return line;
+
+	}
+
+	// the slot or pair each line of a source assembled whole gave
+	private void index(List<String> lines) {
+
+		results = new Line[lines.size()];
+		slots = new int[lines.size()];
+		dataStart = lines.size();
+		int checkedLine = 0;
+		int slot = 0;
+		int pair = 0;
+		for (int j = 0; j < lines.size(); j++) {
+
+			slots[j] = -1;
+			if (isBlank(lines.get(j))) {
+				continue;
+			}
+			Line line = results[j] = recorded.get(checkedLine++);
+			if (line.separator) dataStart = j + 1;
+			if (line.instruction != null) slots[j] = slot++;
+			if (line.pair != null) slots[j] = pair++;
+
+		}
+		count = slot;
+		texts = lines;
+
+	}
+
+	/**
+	 * Writes the slots of the lines edited in place since the last source
+	 * over the file it was assembled to, if that is all that changed.
+	 * @return false if lines has to be assembled whole
+	 */
+	private boolean patch(List<String> lines, File target) {
+
+		if (texts == null || lines.size() != texts.size() || !target.equals(written)
+				|| writtenVersion != getPexeVersion() || !unchanged(target)) {
+			return false;
+		}
+
+		int first = 0;
+		while (first < lines.size() && lines.get(first).equals(texts.get(first))) first++;
+		if (first == lines.size()) {
+			return true;
+		}
+		int last = lines.size() - 1;
+		while (lines.get(last).equals(texts.get(last))) last--;
+
+		Line[] edited = new Line[last - first + 1];
+		int changedLines = 0;
+		for (int j = first; j <= last; j++) {
+
+			if (lines.get(j).equals(texts.get(j))) {
+				continue;
+			}
+			if (++changedLines > MAX_LINES) {
+				return false;
+			}
+			Line before = results[j];
+			boolean blank = isBlank(lines.get(j));
+			if (blank != (before == null)) {
+				return false;
+			}
+			if (blank) {
+				continue;
+			}
+			Line line = edited[j - first] = checkLine(lines.get(j), j < dataStart);
+			if (line.message != null || line.separator || before.separator
+					|| (line.instruction == null) != (before.instruction == null)
+					|| (line.pair == null) != (before.pair == null)) {
+				return false;
+			}
+
+		}
+
+		// a null run means the file has to be encoded again, which assembling whole does
+		List<int[]> runs = new ArrayList<>();
+		for (int j = first; j <= last; j++) {
+
+			Line line = edited[j - first];
+			if (line == null) {
+				continue;
+			}
+			int[] changed = line.instruction != null
+					? Pexe.patchSlot(writtenBytes, writtenVersion, slots[j],
+							Memory.pack(line.instruction.opcode, line.instruction.arg))
+					: line.pair != null
+					? Pexe.patchPair(writtenBytes, writtenVersion, count, slots[j], line.pair.address, line.pair.value)
+					: new int[0];
+			if (changed == null) {
+				return false;
+			}
+			runs.add(changed);
+
+		}
+
+		try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+
+			for (int[] changed : runs) {
+				for (int r = 0; r < changed.length; r += 2) {
+					write(channel, writtenBytes, changed[r], changed[r + 1]);
+				}
+			}
+			stamp(target);
+
+		}
+		catch (IOException e) {
+
+			return false;
+
+		}
+
+		for (int j = first; j <= last; j++) {
+			if (edited[j - first] != null) results[j] = edited[j - first];
+		}
+		texts = lines;
+		patched++;
+		return true;
+
+	}
+
+	@Override
+	void write(File file, Program program) throws IOException {
+
+		written = null;
+		File target = file.getAbsoluteFile();
+		byte[] bytes = Pexe.encode(program, getPexeVersion());
+		Files.write(target.toPath(), bytes);
+		writtenBytes = bytes;
+		writtenVersion = getPexeVersion();
+		stamp(target);
+		written = target;
+
+	}
+
+	private void stamp(File file) throws IOException {
+
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		writtenTime = attributes.lastModifiedTime();
+		writtenKey = attributes.fileKey();
+
+	}
+
+	/**
+	 * True if file is still what was written last, as far as its size,
+	 * modification time and file key tell. A file replaced by another, as
+	 * most tools write, has a new key even within one tick of the clock.
+	 */
+	private boolean unchanged(File file) {
+
+		try {
+
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return attributes.size() == writtenBytes.length
+					&& attributes.lastModifiedTime().equals(writtenTime)
+					&& Objects.equals(attributes.fileKey(), writtenKey);
+
+		}
+		catch (IOException e) {
+
+			return false;
+
+		}
+
+	}
+
+	private static void write(FileChannel channel, byte[] bytes, int from, int to) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, from, to - from);
+		long position = from;
+		while (buffer.hasRemaining()) {
+
+			position += channel.write(buffer, position);
+
+		}
+
+	}
+
+	/**
+	 * @return the number of lines checked since this assembler was made,
+	 * rather than taken from an earlier assembly
+	 */
+	public int getChecked() {
+		return checked;
+	}
+
+	public int getReused() {
+		return reused;
+	}
+
+	/**
+	 * @return the number of .pexe files written by patching the slots of
+	 * the lines edited rather than writing the whole file
+	 */
+	public int getPatched() {
+		return patched;
+	}
+
+}
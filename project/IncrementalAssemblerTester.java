@@ -0,0 +1,156 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class IncrementalAssemblerTester {
+
+	@TempDir
+	File dir;
+
+	private String source(String text) throws IOException {
+		File file = new File(dir, "source.pasm");
+		Files.writeString(file.toPath(), text);
+		return file.getPath();
+	}
+
+	private byte[] full(String text) throws IOException {
+		return full(text, Pexe.VERSION_1);
+	}
+
+	private byte[] full(String text, int version) throws IOException {
+		File pexe = new File(dir, "full.pexe");
+		FullAssembler assembler = new FullAssembler();
+		assembler.setPexeVersion(version);
+		assembler.assemble(source(text), pexe.getPath(), new StringBuilder());
+		return Files.readAllBytes(pexe.toPath());
+	}
+
+	@Test
+	// only edited lines are checked again, an edit in place is patched, and the file is the one FullAssembler writes
+	public void testEdits() throws Exception {
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		File pexe = new File(dir, "inc.pexe");
+		String[] texts = {"LOD M1\nADD 2\nHALT\nDATA\n2 5\n",
+				"LOD M1\nADD 3\nHALT\nDATA\n2 5\n",
+				"LOD M1\nADD 3\nSTO 4\nHALT\nDATA\n2 5\n3 6\n",
+				"LOD M1\nHALT\n"};
+		int[] checked = {5, 1, 2, 0};
+		int[] patched = {0, 1, 0, 0};
+		for (int i = 0; i < texts.length; i++) {
+			byte[] expected = full(texts[i]);
+			int before = assembler.getChecked();
+			int patchedBefore = assembler.getPatched();
+			StringBuilder error = new StringBuilder();
+			assertEquals(0, assembler.assemble(source(texts[i]), pexe.getPath(), error));
+			int run = i;
+			assertAll (
+					() -> assertEquals("", error.toString()),
+					() -> assertEquals(checked[run], assembler.getChecked() - before),
+					() -> assertEquals(patched[run], assembler.getPatched() - patchedBefore),
+					() -> assertArrayEquals(expected, Files.readAllBytes(pexe.toPath()))
+					);
+		}
+	}
+
+	@Test
+	// errors are reported with the line they are on now, not where the text was first seen
+	public void testErrorLines() throws Exception {
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		File pexe = new File(dir, "errors.pexe");
+		StringBuilder error = new StringBuilder();
+		assertEquals(1, assembler.assemble(source("lod 1\nHALT\n"), pexe.getPath(), error));
+		error.setLength(0);
+		assertEquals(2, assembler.assemble(source("HALT\nlod 1\n"), pexe.getPath(), error));
+		assertEquals("Error at line 2: Mnemonic not in all uppercase\n", error.toString());
+		// the same text is a data line after DATA
+		error.setLength(0);
+		assertEquals(3, assembler.assemble(source("HALT\nDATA\nHALT\n"), pexe.getPath(), error));
+		assertEquals("Error at line 3: Data has non-numeric memory address and is missing value\n", error.toString());
+	}
+
+	@Test
+	// a line inserted at the top moves every slot, so the file is written whole rather than in many runs
+	public void testInsertedLine() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) text.append("LOD ").append(i).append('\n');
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		File pexe = new File(dir, "inserted.pexe");
+		assembler.assemble(source(text + "HALT\n"), pexe.getPath(), new StringBuilder());
+		// as long as before, but every slot has moved
+		assembler.assemble(source("HALT\n" + text), pexe.getPath(), new StringBuilder());
+		assertAll (
+				() -> assertEquals(0, assembler.getPatched()),
+				() -> assertArrayEquals(full("HALT\n" + text), Files.readAllBytes(pexe.toPath()))
+				);
+	}
+
+	@Test
+	// in version 2 an edited slot or sparse value is patched with the checksums, other data is written whole
+	public void testVersion2() throws Exception {
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		assembler.setPexeVersion(Pexe.VERSION_2);
+		File pexe = new File(dir, "two.pexe");
+		String[] texts = {"LOD M1\nADD 2\nHALT\nDATA\n2 5\n900 6\n",
+				"LOD M1\nSUB N2\nHALT\nDATA\n2 5\n900 6\n",
+				"LOD M1\nSUB N2\nHALT\nDATA\n2 7\n900 6\n",
+				"LOD M1\nSUB N2\nHALT\nDATA\n3 7\n900 6\n",
+				"LOD M1\nSUB N2\nHALT\nDATA\n3 7\n4 6\n",
+				"LOD M1\nSUB N2\nHALT\nDATA\n3 7\n4 8\n"};
+		int[] patched = {0, 1, 1, 0, 0, 0};
+		for (int i = 0; i < texts.length; i++) {
+			byte[] expected = full(texts[i], Pexe.VERSION_2);
+			int before = assembler.getPatched();
+			assertEquals(0, assembler.assemble(source(texts[i]), pexe.getPath(), new StringBuilder()));
+			int run = i;
+			assertAll (
+					() -> assertEquals(patched[run], assembler.getPatched() - before, texts[run]),
+					() -> assertArrayEquals(expected, Files.readAllBytes(pexe.toPath()), texts[run])
+					);
+		}
+	}
+
+	@Test
+	// lines edited apart are patched together, and a blank line or an error is assembled whole
+	public void testSeveralLines() throws Exception {
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		File pexe = new File(dir, "several.pexe");
+		String[] texts = {"LOD 1\nADD 2\nSTO 3\nHALT\nDATA\n1 4\n",
+				"LOD 5\nADD 2\nSTO 6\nHALT\nDATA\n1 9\n",
+				"LOD 5\n\nSTO 6\nHALT\nDATA\n1 9\n",
+				"LOD 5\nADD 2\nSTO 6\nHALT\nDATA\n1 9\n",
+				"LOD 5\nADD 2\nSTO M6\nHALT\nDATA\n1 9\n",
+				"LOD 5\nADD 2\nSTO 7\nHALT\nDATA\n1 9\n",
+				"LOD 5\nADD 2\nSTO 8\nHALT\nDATA\n1 9\n"};
+		int[] patched = {0, 1, 0, 0, 0, 0, 1};
+		for (int i = 0; i < texts.length; i++) {
+			int before = assembler.getPatched();
+			StringBuilder error = new StringBuilder();
+			int result = assembler.assemble(source(texts[i]), pexe.getPath(), error);
+			int run = i;
+			assertEquals(patched[run], assembler.getPatched() - before, texts[run]);
+			if (result == 0) {
+				assertArrayEquals(full(texts[run]), Files.readAllBytes(pexe.toPath()), texts[run]);
+			}
+		}
+	}
+
+	@Test
+	// a pexe changed by something else is written whole
+	public void testChangedFile() throws Exception {
+		IncrementalAssembler assembler = new IncrementalAssembler();
+		File pexe = new File(dir, "changed.pexe");
+		assembler.assemble(source("LOD 1\nHALT\n"), pexe.getPath(), new StringBuilder());
+		Files.write(pexe.toPath(), new byte[] {1, 2, 3});
+		assembler.assemble(source("LOD 2\nHALT\n"), pexe.getPath(), new StringBuilder());
+		assertArrayEquals(full("LOD 2\nHALT\n"), Files.readAllBytes(pexe.toPath()));
+	}
+
+}
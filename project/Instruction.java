@@ -21,6 +21,10 @@ public class Instruction {
 			// there will be more entries
 	);
 	
+	// opcode/8 values, for code that switches on the opcode instead of looking it up
+	public static final int NOP = 0, NOT = 1, HALT = 2, JUMP = 3, JMPZ = 4, LOD = 5, STO = 6,
+			AND = 7, CMPL = 8, CMPZ = 9, ADD = 10, SUB = 11, MUL = 12, DIV = 13;
+	
 	public static final Set<String> NO_ARG_MNEMONICS = Set.of("NOP", "NOT", "HALT"); 
 	public static final Set<String> IMM_MNEMONICS = Set.of("LOD", "ADD", "SUB", "MUL", "DIV", "AND", "JUMP", "JMPZ");
 	public static final Set<String> IND_MNEMONICS = Set.of("LOD", "ADD", "SUB", "MUL", "DIV", "JUMP", "JMPZ", "STO");
@@ -47,22 +51,31 @@ public class Instruction {
 	
 	static int numOnes(int k) {
 		
-		String binK = Integer.toUnsignedString(k, 2);
+		return Integer.bitCount(k);
 		
-		int total = 0;
+	}
+	
+	// Decoded form of an opcode, computed once by Memory when a code slot is written:
+	// the mnemonic index in bits 0-4, the addressing flags (0, 2, 4 or 6) in bits 5-7
+	// and PARITY_OK if the parity bit checks out
+	static final int PARITY_OK = 1 << 8;
+	
+	static int decode(byte opcode) {
 		
-		for (int i = 0; i < binK.length(); i++) {
-			
-			if (binK.substring(i, i+1).equals("1")) {
-				
-				total++;
-				
-			}
-			
+		int d = ((opcode >> 3) & 0x1F) | ((opcode & 6) << 4);
+		if (numOnes(opcode) % 2 == 0) {
+			d |= PARITY_OK;
 		}
+		return d;
 		
-		return total;
-		
+	}
+	
+	static int decodedOp(int decoded) {
+		return decoded & 0x1F;
+	}
+	
+	static int decodedFlags(int decoded) {
+		return (decoded >> 4) & 6;
 	}
 	
 	static void checkParity(Instruction instr) {
@@ -1,14 +1,28 @@
 package project;
 
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
+/**
+ * Loads a pexe file of either version. Version 2 is described in Pexe.
+ * Version 1 is big-endian ints, the opcode, argument pairs of the code,
+ * -1, the address, value pairs of the data and -1 -1. A file of at least
+ * MAP_THRESHOLD bytes is mapped, a smaller one is read in one call, since
+ * mapping costs more than reading a few KB and a mapping is only released
+ * when its buffer is collected. Either way the file is decoded to a
+ * Program, whose code goes into the code memory in one bulk copy.
+ */
 public class Loader {
 
+	static final int MAP_THRESHOLD = 1 << 16;
+
 	public static String load(Machine machine, File file) throws Exception {
 		
 		if (machine == null || file == null) {
@@ -17,44 +31,95 @@ public class Loader {
 			
 		}
 		
-		int numInstr = 0;
-		boolean readingCode = true;
+		ByteBuffer bytes = read(file);
+		if (bytes == null) {
+			
+			return("File " + file.getName() + " Not Found");
+			
+		}
+		
+		return "" + decode(bytes).load(machine);
 		
-		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+	}
+	
+	/**
+	 * @return the whole of file, or null if it is missing or cannot be opened
+	 */
+	static ByteBuffer read(File file) throws IOException {
+		
+		if (!file.isFile()) {
 			
-			while(true) {
-				
-				int x = input.readInt();
+			return null;
+			
+		}
+		
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			
+			long size = channel.size();
+			if (size >= MAP_THRESHOLD) {
 				
-				if (readingCode && x == -1) {
-					
-					readingCode = false;
-					
-				}
-				else if (readingCode) {
-					
-					numInstr++;
-					machine.addCode(new Instruction((byte)x, input.readInt()));
-					
-				}
-				else {
-					
-					machine.setData(x, input.readInt());
-					if (x == -1) break;
-					
-				}
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
 				
 			}
 			
-		} catch (EOFException e) {
-			return "" + numInstr;
-		} catch (FileNotFoundException e1) {
-			return("File " + file.getName() + " Not Found");
-		} catch (Exception e) {
-			throw e;
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) break;
+			}
+			return buffer.flip();
+			
+		} catch (NoSuchFileException | AccessDeniedException e) {
+			return null;
+		}
+		
+	}
+	
+	/**
+	 * Decodes a pexe file of either version, told apart by the first int.
+	 */
+	static Program decode(ByteBuffer bytes) {
+		
+		if (bytes.limit() >= 4 && bytes.getInt(0) == Pexe.MAGIC) {
+			
+			return Pexe.decode(bytes);
+			
+		}
+		return decode(bytes.asIntBuffer());
+		
+	}
+	
+	/**
+	 * Decodes the ints of a version 1 pexe file. A file cut short loads
+	 * as far as it goes, whole code pairs and data pairs only.
+	 */
+	static Program decode(IntBuffer ints) {
+		
+		int length = ints.limit();
+		int end = 0;
+		while (end < length && ints.get(end) != -1) {
+			end += 2;
+		}
+		
+		long[] code = new long[Math.min(end, length) / 2];
+		for (int i = 0; i < code.length; i++) {
+			code[i] = Memory.pack((byte)ints.get(2*i), ints.get(2*i + 1));
+		}
+		
+		int pairs = 0;
+		for (int i = end + 1; i + 1 < length && ints.get(i) != -1; i += 2) {
+			pairs++;
+		}
+		
+		int[] addresses = new int[pairs];
+		int[] values = new int[pairs];
+		for (int i = 0; i < pairs; i++) {
+			
+			addresses[i] = ints.get(end + 1 + 2*i);
+			values[i] = ints.get(end + 2 + 2*i);
+			
 		}
 		
-		return numInstr + "";
+		return new Program(code, addresses, values);
 		
 	}
 	
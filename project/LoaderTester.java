@@ -0,0 +1,196 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LoaderTester {
+
+	@TempDir
+	File dir;
+
+	private File write(String name, int[] ints, int length) throws IOException {
+		File file = new File(dir, name);
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			for (int i = 0; i < length; i++) out.writeInt(ints[i]);
+		}
+		return file;
+	}
+
+	// count LOD i instructions, -1, then the data pairs (i, 10*i) for i < cells, -1 -1
+	private int[] program(int count, int cells) {
+		int[] ints = new int[2*count + 1 + 2*cells + 2];
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			ints[k++] = 0b00101000;
+			ints[k++] = i;
+		}
+		ints[k++] = -1;
+		for (int i = 0; i < cells; i++) {
+			ints[k++] = i;
+			ints[k++] = 10*i;
+		}
+		ints[k++] = -1;
+		ints[k++] = -1;
+		return ints;
+	}
+
+	@Test
+	// a small file is read and a big one mapped, both load the same way
+	public void testReadAndMapped() throws Exception {
+		for (int count : new int[] {10, 20_000}) {
+			int[] ints = program(count, 100);
+			File file = write("program.pexe", ints, ints.length);
+			assertEquals(count*8 >= Loader.MAP_THRESHOLD, file.length() >= Loader.MAP_THRESHOLD);
+			Machine m = new Machine(() -> {}, Memory.DATA_SIZE, 20_000);
+			assertEquals("" + count, Loader.load(m, file));
+			assertAll (
+					() -> assertEquals(count, m.getProgramSize()),
+					() -> assertEquals(0, m.getCode(0).arg),
+					() -> assertEquals(count - 1, m.getCode(count - 1).arg),
+					() -> assertEquals("LOD", m.getCode(count - 1).getText().split(" ")[0]),
+					() -> assertEquals(990, m.getData(99)),
+					() -> assertEquals(0, m.getData(100))
+					);
+		}
+	}
+
+	@Test
+	// SimpleAssembler writes version 2, which loads like the program it came from
+	public void testAssemblerOutput() throws Exception {
+		File pasm = new File(dir, "countdown.pasm");
+		Files.write(pasm.toPath(), Arrays.asList("LOD M0", "SUB 1", "STO 0", "JMPZ 2", "JUMP -4", "HALT",
+				"DATA", "0 5", "1 1", "A -1"));
+		File pexe = new File(dir, "countdown.pexe");
+		for (int version : new int[] {Pexe.VERSION_1, Pexe.VERSION_2}) {
+			// version 1 unless asked for 2, which starts with the magic number
+			SimpleAssembler assembler = new SimpleAssembler();
+			if (version == Pexe.VERSION_2) assembler.setPexeVersion(version);
+			int first = version == Pexe.VERSION_1 ? 0b00101011 : Pexe.MAGIC; // LOD M
+			StringBuilder error = new StringBuilder();
+			assembler.assemble(pasm.getPath(), pexe.getPath(), error);
+			assertEquals("", error.toString());
+			Machine m = new Machine(() -> {});
+			assertEquals(first, ByteBuffer.wrap(Files.readAllBytes(pexe.toPath())).getInt());
+			assertEquals("6", Loader.load(m, pexe));
+			assertAll (
+					() -> assertEquals(-4, m.getCode(4).arg),
+					() -> assertEquals(5, m.getData(0)),
+					() -> assertEquals(1, m.getData(1)),
+					() -> assertEquals(-1, m.getData(10))
+					);
+		}
+		assertThrows(IllegalArgumentException.class, () -> new SimpleAssembler().setPexeVersion(3));
+	}
+
+	@Test
+	// a version 2 file loads the same as version 1, with dense or sparse data
+	public void testVersions() throws Exception {
+		for (int stride : new int[] {1, 2, 3, 1000}) {
+			List<Instruction> code = new ArrayList<>();
+			List<Assembler.DataPair> data = new ArrayList<>();
+			List<Integer> ints = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				code.add(new Instruction((byte)0b01010011, 7*i)); // ADD M
+				ints.add(0b01010011);
+				ints.add(7*i);
+			}
+			ints.add(-1);
+			for (int i = 0; i < 100; i++) {
+				data.add(new Assembler.DataPair(5 + stride*(i % 40), i - 50));
+				ints.add(5 + stride*(i % 40));
+				ints.add(i - 50);
+			}
+			File v2 = new File(dir, "v2.pexe");
+			Pexe.write(v2, Program.of(code, data), Pexe.VERSION_2);
+			File v1 = write("v1.pexe", ints.stream().mapToInt(i -> i).toArray(), ints.size());
+			// dense when the pairs fill at least half the addresses they span
+			assertEquals(stride == 1000 ? 8*100 : 4 + 4*(39*stride + 1), sectionLength(v2, 1));
+			Machine m1 = new Machine(() -> {}, 50_000, Memory.CODE_SIZE);
+			Machine m2 = new Machine(() -> {}, 50_000, Memory.CODE_SIZE);
+			assertEquals(Loader.load(m1, v1), Loader.load(m2, v2));
+			assertAll (
+					() -> assertEquals(text(m1), text(m2)),
+					() -> assertArrayEquals(m1.getData(), m2.getData())
+					);
+		}
+	}
+
+	private List<String> text(Machine m) {
+		List<String> text = new ArrayList<>();
+		for (Instruction instr : m.getCode()) text.add(instr.getText());
+		return text;
+	}
+
+	private int sectionLength(File pexe, int section) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(pexe))) {
+			in.skipBytes(16 + 16*section + 8);
+			return in.readInt();
+		}
+	}
+
+	@Test
+	// a damaged version 2 file is refused before any of it is loaded
+	public void testDamaged() throws Exception {
+		List<Instruction> code = Arrays.asList(new Instruction((byte)0b00010001, 0));
+		List<Assembler.DataPair> data = Arrays.asList(new Assembler.DataPair(3, 4));
+		byte[] bytes = Pexe.encode(Program.of(code, data), Pexe.VERSION_2);
+		File file = new File(dir, "damaged.pexe");
+		for (int at : new int[] {5, 13, 17, 37, bytes.length - 1}) {
+			byte[] damaged = bytes.clone();
+			damaged[at] ^= 1;
+			Files.write(file.toPath(), damaged);
+			Machine m = new Machine(() -> {});
+			assertThrows(PexeFormatException.class, () -> Loader.load(m, file));
+			assertEquals(0, m.getProgramSize());
+			assertEquals(0, m.getData(3));
+		}
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+		assertThrows(PexeFormatException.class, () -> Loader.load(new Machine(() -> {}), file));
+	}
+
+	@Test
+	// a file cut short loads its whole pairs only
+	public void testTruncated() throws Exception {
+		int[] ints = program(3, 2);
+		Machine code = new Machine(() -> {});
+		assertEquals("2", Loader.load(code, write("code.pexe", ints, 5)));
+		Machine data = new Machine(() -> {});
+		assertEquals("3", Loader.load(data, write("data.pexe", ints, 12)));
+		assertAll (
+				() -> assertEquals(2, code.getProgramSize()),
+				() -> assertEquals(3, data.getProgramSize()),
+				() -> assertArrayEquals(new int[] {0, 10, 0}, Arrays.copyOf(data.getData(), 3))
+				);
+		assertEquals("0", Loader.load(new Machine(() -> {}), write("empty.pexe", ints, 0)));
+	}
+
+	@Test
+	// a missing file or a directory is reported, too much code throws
+	public void testErrors() throws Exception {
+		Machine m = new Machine(() -> {}, Memory.DATA_SIZE, 10);
+		int[] ints = program(11, 0);
+		assertAll (
+				() -> assertEquals("File missing.pexe Not Found", Loader.load(m, new File(dir, "missing.pexe"))),
+				() -> assertEquals("File " + dir.getName() + " Not Found", Loader.load(m, dir)),
+				() -> assertThrows(CodeAccessException.class, () -> Loader.load(m, write("big.pexe", ints, ints.length)))
+				);
+		assertEquals(10, m.getProgramSize());
+	}
+
+}
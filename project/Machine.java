@@ -2,6 +2,7 @@ package project;
 
 import static project.Instruction.OPCODES;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -14,11 +15,22 @@ public class Machine {
 		private int pc;
 	}
 	
-	public final Map<Integer, Consumer<Instruction>> ACTION = new TreeMap<>();
+	// ACTION is a read-only view of handlers that execute one Instruction 
+	// directly, kept for callers of the old table. They delegate to the 
+	// interpreter, see perform(), so the semantics exist only there.
+	private final Map<Integer, Consumer<Instruction>> actions = new TreeMap<>();
+	public final Map<Integer, Consumer<Instruction>> ACTION = Collections.unmodifiableMap(actions);
 	private CPU cpu = new CPU();
-	private Memory memory = new Memory();
+	private Memory memory;
 	private boolean withGUI = false;
 	private HaltCallback callBack;
+	private long executed; // instructions completed by the last call to execute
+	private final long[] action = new long[1]; // the one slot an ACTION entry runs
+	private int faultDetail; // fault register, see getFaultDetail()
+	private BlockCompiler compiler; // null unless a compile threshold is set
+	private boolean fusion = true;
+	private Profile profile; // null unless profiling is on
+	private Trace trace; // null unless tracing is on
 	
 	
 	public void halt() {
@@ -30,6 +42,19 @@ public class Machine {
 	public void setData(int i, int j) {
 		memory.setData(i, j);		
 	}
+	public int getDataSize() {
+		return memory.getDataSize();
+	}
+	public int getCodeSize() {
+		return memory.getCodeSize();
+	}
+	/**
+	 * Releases the data memory, see Memory.close(). The machine must not 
+	 * run afterwards.
+	 */
+	public void close() {
+		memory.close();
+	}
 	//package private
 	int[] getData() {
 		return memory.getData();
@@ -48,6 +73,14 @@ public class Machine {
 		memory.addCode(j);	
 	}
 	// package private
+	void addCode(byte opcode, int arg) {
+		memory.addCode(opcode, arg);
+	}
+	// package private
+	void addCode(long[] slots) {
+		memory.addCode(slots);
+	}
+	// package private
 	void setCode(int index, Instruction instr) {
 		memory.setCode(index, instr);	
 	}
@@ -58,6 +91,51 @@ public class Machine {
 	Instruction[] getCode(int min, int max) {
 		return memory.getCode(min,max);
 	}
+	/**
+	 * Turns on compilation of hot basic blocks to JVM bytecode. A block 
+	 * is compiled once the interpreter has entered it threshold times.
+	 * Only run() benefits, step() always interprets one instruction.
+	 * @param threshold the number of entries before a block is compiled,
+	 * 0 or less turns compilation off
+	 */
+	public void setCompileThreshold(int threshold) {
+		compiler = threshold > 0 ? new BlockCompiler(threshold, memory) : null;
+	}
+	/**
+	 * Turns the superinstructions used by run() on or off. They are on by 
+	 * default and never change the results, only the number of dispatches.
+	 * step() always executes exactly one unfused instruction.
+	 */
+	public void setFusion(boolean fusion) {
+		this.fusion = fusion;
+	}
+	/**
+	 * Turns on counting every instruction run by step() and run(), see
+	 * Profile. While it is on, run() executes one instruction at a time,
+	 * without compiled blocks or superinstructions, so each is counted at
+	 * its own PC. Off, the default, costs nothing.
+	 * @param on true for a new, empty profile, false to drop the profile
+	 */
+	public void setProfiling(boolean on) {
+		profile = on ? new Profile(memory) : null;
+	}
+	/**
+	 * @return the counts since profiling was turned on, null if it is off
+	 */
+	public Profile getProfile() {
+		return profile;
+	}
+	/**
+	 * Records every instruction run by step() and run() in trace, see 
+	 * Trace. Like profiling, it makes run() execute one instruction at a 
+	 * time. Null, the default, turns it off.
+	 */
+	public void setTrace(Trace trace) {
+		this.trace = trace;
+	}
+	public Trace getTrace() {
+		return trace;
+	}
 	public int getPC() {
 		return cpu.pc;
 	}
@@ -67,6 +145,29 @@ public class Machine {
 	public int getChangedDataIndex() {
 		return memory.getChangedDataIndex();
 	}
+	/**
+	 * @return the number of data pages allocated, shared with a snapshot or not
+	 */
+	int getAllocatedPages() {
+		return memory.getAllocatedPages();
+	}
+	/**
+	 * Ends the current frame of data writes, see getChangedData.
+	 * @return the frame that ended
+	 */
+	public int markFrame() {
+		return memory.markFrame();
+	}
+	/**
+	 * Lets a view redraw only the cells that changed since it last drew.
+	 * @param frame the value markFrame() returned at the last redraw, -1 
+	 * for every cell
+	 * @param changed receives the indices in [min, max) written since then
+	 * @return the number of indices put in changed
+	 */
+	public int getChangedData(int frame, int min, int max, int[] changed) {
+		return memory.getChangedData(frame, min, max, changed);
+	}
 	public int getAccum() {
 		return cpu.accum;
 	}
@@ -84,6 +185,46 @@ public class Machine {
 		cpu.pc = 0;
 		cpu.accum = 0;
 		
+	}
+	/**
+	 * Takes a snapshot of the data, the code, the PC and the accumulator.
+	 * No data is copied: the pages are shared until this machine or one
+	 * restored from the snapshot writes them, so the cost grows with the
+	 * number of pages, not of cells. A heap memory of one flat page is
+	 * copied whole, it is at most PAGE_SIZE cells.
+	 */
+	public Snapshot snapshot() {
+		return memory.snapshot(cpu.pc, cpu.accum);
+	}
+	/**
+	 * Puts the machine back in the state of snapshot, which must come from
+	 * a machine of the same sizes and backend. Compiled blocks are kept
+	 * when the code has not changed since. The profile and trace, if any,
+	 * are left as they are.
+	 * @throws IllegalArgumentException if the sizes or backend differ
+	 */
+	public void restore(Snapshot snapshot) {
+		
+		memory.restore(snapshot);
+		cpu.pc = snapshot.pc;
+		cpu.accum = snapshot.accum;
+		
+	}
+	/**
+	 * @return a new machine in this one's state, sharing its pages until 
+	 * either writes them, with the same halt callback, fusion and compile 
+	 * threshold, without profiling or tracing
+	 */
+	public Machine fork() {
+		
+		Machine child = new Machine(callBack, memory.getDataSize(), memory.getCodeSize(), memory.getBackend());
+		child.fusion = fusion;
+		if (compiler != null) {
+			child.setCompileThreshold(compiler.getThreshold());
+		}
+		child.restore(snapshot());
+		return child;
+		
 	}
 	public void step(){
 	// TODO
@@ -98,266 +239,467 @@ public class Machine {
 	// in case we want to find out what exception is occurring when debugging
 	// the other lines of the exception are halt(); and throw e;
 		
-		try {
-			
-			Instruction instr = getCode(cpu.pc);
-			Instruction.checkParity(instr);
-			
-			ACTION.get(instr.opcode/8).accept(instr);
-			
+		int status = tryStep();
+		
+		if (status == Status.HALTED) {
+			callBack.halt();
 		}
-		catch (Exception e) {
-			
-			//e.printStackTrace();
+		else if (Status.isFault(status)) {
 			
 			halt();
-			throw e;
+			throw toException(status);
 			
 		}
 		
 	}
 	
+	/**
+	 * Executes one instruction like step(), but returns a Status code 
+	 * instead of throwing and does not call the HaltCallback. A fault 
+	 * leaves the PC at the faulting instruction and the details in the 
+	 * fault register, and allocates nothing.
+	 */
+	public int tryStep() {
+		return execute(1);
+	}
 	
-	public Machine(HaltCallback cb) {
+	/**
+	 * Runs like run(maxSteps), but returns a Status code instead of a 
+	 * RunResult, so faulting runs allocate nothing. The number of 
+	 * instructions executed is then in getExecuted().
+	 */
+	public int tryRun(long maxSteps) {
+		return execute(maxSteps);
+	}
+	
+	public long getExecuted() {
+		return executed;
+	}
+	
+	/**
+	 * The fault register: the flags for ILLEGAL_FLAGS, the opcode for 
+	 * ILLEGAL_OPCODE and the index for DATA_ACCESS, from the last fault.
+	 */
+	public int getFaultDetail() {
+		return faultDetail;
+	}
+	
+	/**
+	 * Builds the exception step() throws for a fault. It describes the 
+	 * last fault, so call it before the machine runs again.
+	 * @param status a fault status returned by tryStep() or tryRun()
+	 */
+	public RuntimeException toException(int status) {
 		
-		callBack = cb;
+		switch (status) {
+		case Status.CODE_ACCESS:
+			return new CodeAccessException("Illegal access to code");
+		case Status.DATA_ACCESS:
+			return new ArrayIndexOutOfBoundsException("Index " + faultDetail 
+					+ " out of bounds for length " + memory.getDataSize());
+		case Status.PARITY:
+			return new ParityCheckException("This instruction is corrupted");
+		case Status.ILLEGAL_FLAGS:
+			return illegalFlags(faultDetail);
+		case Status.ILLEGAL_OPCODE:
+			return new IllegalInstructionException("Illegal opcode: " + faultDetail);
+		case Status.DIVIDE_BY_ZERO:
+			return new DivideByZeroException("Zero Division");
+		default:
+			throw new IllegalArgumentException("Not a fault: " + Status.name(status));
+		}
 		
-		//NOP
-		ACTION.put(OPCODES.get("NOP"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags != 0){
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;			
-		});
-		
-		//ADD
-		ACTION.put(OPCODES.get("ADD"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) { // direct addressing
-				cpu.accum += memory.getData(instr.arg);
-			} else if(flags == 2) { // immediate addressing
-				cpu.accum += instr.arg;
-			} else if(flags == 4) { // indirect addressing
-				cpu.accum += memory.getData(memory.getData(instr.arg));				
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") 
-						+ (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;			
-		});
-		
-		//HALT
-		ACTION.put(OPCODES.get("HALT"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				cb.halt(); 			
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}		
-		});
-		
-		//JUMP
-		ACTION.put(OPCODES.get("JUMP"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				cpu.pc += instr.arg;
-			} else if (flags == 2) {
-				cpu.pc = instr.arg;
-			} else if (flags == 4) {
-				cpu.pc += memory.getData(instr.arg);
-			} else {
-				cpu.pc = memory.getData(instr.arg);
-			}		
-		});
-		
-		//JMPZ
-		ACTION.put(OPCODES.get("JMPZ"), instr -> {
-			if(cpu.accum == 0) {
-				int flags = instr.opcode & 6; // remove parity bit that will have been verified
-				if(flags == 0) {
-					cpu.pc += instr.arg;
-				} else if (flags == 2) {
-					cpu.pc = instr.arg;
-				} else if (flags == 4) {
-					cpu.pc += memory.getData(instr.arg);
-				} else {
-					cpu.pc = memory.getData(instr.arg);
-				}
-			}
-			else {
-				cpu.pc++;
-			}
-		});
-		
-		//LOD
-		ACTION.put(OPCODES.get("LOD"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				cpu.accum = memory.getData(instr.arg);
-			} else if (flags == 2) {
-				cpu.accum = instr.arg;
-			} else if (flags == 4) {
-				cpu.accum = memory.getData(memory.getData(instr.arg));
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;
-		});
-		
-		//STO
-		ACTION.put(OPCODES.get("STO"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				memory.setData(instr.arg, cpu.accum);
-			} else if (flags == 4) {
-				memory.setData(memory.getData(instr.arg), cpu.accum);
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+	}
+	
+	
+	/**
+	 * Runs the loaded program from the current PC in a tight loop, without 
+	 * going through step() and without calling the HaltCallback. The PC and 
+	 * accumulator are kept in locals and written back to the CPU when the 
+	 * run stops. A fault does not propagate, it is reported in the result.
+	 * @param maxSteps the largest number of instructions to execute
+	 * @return the reason the run stopped, the number of instructions 
+	 * executed and the PC the machine stopped at (the faulting PC for a fault)
+	 */
+	public RunResult run(long maxSteps) {
+		
+		int status = execute(maxSteps);
+		
+		if (Status.isFault(status)) {
+			return new RunResult(RunResult.HaltReason.FAULT, executed, cpu.pc, toException(status));
+		}
+		
+		return new RunResult(status == Status.HALTED ? RunResult.HaltReason.HALTED : RunResult.HaltReason.STEP_LIMIT, 
+				executed, cpu.pc, null);
+		
+	}
+	
+	public RunResult runUntilHalt() {
+		return run(Long.MAX_VALUE);
+	}
+	
+	private int execute(long maxSteps) {
+		return profile == null && trace == null ? interpret(maxSteps) : observe(maxSteps);
+	}
+	
+	/**
+	 * Interprets up to maxSteps instructions one at a time, counting each 
+	 * one that completes in the profile and recording it in the trace. 
+	 * An instruction that faults is neither counted nor recorded.
+	 */
+	private int observe(long maxSteps) {
+		
+		long[] code = memory.getPackedCode();
+		int size = memory.getProgramSize();
+		long steps = 0;
+		int status = Status.RUNNING;
+		
+		while (steps < maxSteps && status == Status.RUNNING) {
+			
+			int pc = cpu.pc;
+			int accum = cpu.accum;
+			int address = trace != null && pc >= 0 && pc < size ? stored(code[pc]) : -1;
+			int old = address >= 0 ? memory.read(address) : 0;
+			status = interpret(1);
+			if (executed == 0) {
+				break;
 			}
-			cpu.pc++;
-		});
-		
-		//NOT
-		ACTION.put(OPCODES.get("NOT"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				if (cpu.accum == 0) {
-					cpu.accum = 1;
-				}
-				else {
-					cpu.accum = 0;
-				}
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			if (profile != null) {
+				profile.count(pc, code[pc], accum);
 			}
-			cpu.pc++;			
-		});
-		
-		//AND
-		ACTION.put(OPCODES.get("AND"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				if (cpu.accum != 0 && memory.getData(instr.arg) != 0) {
-					cpu.accum = 1;
-				}
-				else {
-					cpu.accum = 0;
-				}
-				cpu.pc++;
-			} else if (flags == 2) {
-				if (cpu.accum != 0 && instr.arg != 0) {
-					cpu.accum = 1;
-				}
-				else {
-					cpu.accum = 0;
-				}
-				cpu.pc++;
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			if (trace != null) {
+				trace.record(pc, code[pc], accum, cpu.accum, address, address >= 0 ? memory.read(address) : 0, old);
 			}
-		});
-		
-		//CMPL
-		ACTION.put(OPCODES.get("CMPL"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				if (memory.getData(instr.arg) < 0) {
-					cpu.accum = 1;
-				}
-				else {
-					cpu.accum = 0;
-				}
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			steps++;
+			
+		}
+		
+		executed = steps;
+		return status;
+		
+	}
+	
+	/**
+	 * The interpreter loop behind step() and run(). It executes at most 
+	 * maxSteps instructions straight from the packed code store, keeping 
+	 * the PC and accumulator in locals until it stops. Nothing is thrown: 
+	 * every index is checked and a fault ends the loop with its Status, 
+	 * cpu.pc at the faulting instruction and faultDetail set.
+	 * The number of instructions completed is left in executed.
+	 * @return the Status the loop stopped with
+	 */
+	private int interpret(long maxSteps) {
+		
+		return interpret(maxSteps, memory.getPackedCode(), 0, memory.getProgramSize(), compiler, 
+				fusion && maxSteps > 1 ? memory.getFusions() : null);
+		
+	}
+	
+	// interprets code[0, size) as the instructions at origin onwards instead of 
+	// the loaded program, with blocks from compiler and the superinstructions in 
+	// fusions if they are not null, which they only are for an origin of 0
+	private int interpret(long maxSteps, long[] code, int origin, int size, BlockCompiler compiler, byte[] fusions) {
+		
+		int dataSize = memory.getDataSize();
+		int[] data = memory.getFlatData(); // null for a paged memory
+		long fusedLimit = maxSteps - Superinstructions.MAX_LENGTH; // room for a whole superinstruction
+		int pc = cpu.pc;
+		int accum = cpu.accum;
+		long steps = 0;
+		int status = Status.RUNNING;
+		int address;
+		boolean leader = true; // pc starts a basic block
+		
+		loop:
+		while (steps < maxSteps) {
+			
+			int index = pc - origin;
+			if (index < 0 || index >= size) {
+				status = Status.CODE_ACCESS;
+				break;
 			}
-			cpu.pc++;			
-		});
-		
-		//CMPZ
-		ACTION.put(OPCODES.get("CMPZ"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) {
-				if (memory.getData(instr.arg) == 0) {
-					cpu.accum = 1;
-				}
-				else {
-					cpu.accum = 0;
+			
+			if (leader && compiler != null) {
+				
+				leader = false;
+				CompiledBlock block = compiler.enter(pc, memory);
+				int length = compiler.length(pc);
+				
+				if (block != null && length <= maxSteps - steps) {
+					
+					// a block that stops early leaves the faulting instruction to the switch
+					int[] exit = compiler.getExit();
+					exit[0] = length;
+					accum = block.run(data, memory, accum, exit);
+					pc += exit[0];
+					steps += exit[0];
+					continue;
+					
 				}
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+				
 			}
-			cpu.pc++;			
-		});
-		
-		//SUB
-		ACTION.put(OPCODES.get("SUB"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) { // direct addressing
-				cpu.accum -= memory.getData(instr.arg);
-			} else if(flags == 2) { // immediate addressing
-				cpu.accum -= instr.arg;
-			} else if(flags == 4) { // indirect addressing
-				cpu.accum -= memory.getData(memory.getData(instr.arg));				
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") 
-						+ (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			
+			long slot = code[index];
+			int decoded = Memory.decoded(slot);
+			if ((decoded & Instruction.PARITY_OK) == 0) {
+				status = Status.PARITY;
+				break;
 			}
-			cpu.pc++;			
-		});
-		
-		//MUL
-		ACTION.put(OPCODES.get("MUL"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) { // direct addressing
-				cpu.accum *= memory.getData(instr.arg);
-			} else if(flags == 2) { // immediate addressing
-				cpu.accum *= instr.arg;
-			} else if(flags == 4) { // indirect addressing
-				cpu.accum *= memory.getData(memory.getData(instr.arg));				
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") 
-						+ (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			
+			int flags = Instruction.decodedFlags(decoded);
+			int arg = Memory.arg(slot);
+			int op = Instruction.decodedOp(decoded);
+			if (fusions != null && fusions[pc] != Superinstructions.NONE && steps <= fusedLimit) {
+				op = fusions[pc];
 			}
-			cpu.pc++;			
-		});
-		
-		//DIV
-		ACTION.put(OPCODES.get("DIV"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if(flags == 0) { // direct addressing
-				if (memory.getData(instr.arg) == 0) {
-					throw new DivideByZeroException("Zero Division");
-				}
-				cpu.accum /= memory.getData(instr.arg);
-			} else if(flags == 2) { // immediate addressing
-				if (instr.arg == 0) {
-					throw new DivideByZeroException("Zero Division");
-				}
-				cpu.accum /= instr.arg;
-			} else if(flags == 4) { // indirect addressing
-				if (memory.getData(memory.getData(instr.arg)) == 0) {
-					throw new DivideByZeroException("Zero Division");
-				}
-				cpu.accum /= memory.getData(memory.getData(instr.arg));				
-			} else {
-				String fString = "(" + (flags%8 > 3?"1":"0") 
-						+ (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			
+			switch (op) {
+			case Instruction.NOP:
+				if (flags != 0) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				pc++;
+				break;
+			case Instruction.NOT:
+				if (flags != 0) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				accum = accum == 0 ? 1 : 0;
+				pc++;
+				break;
+			case Instruction.HALT:
+				if (flags != 0) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				steps++;
+				status = Status.HALTED;
+				break loop;
+			case Instruction.JUMP:
+				if (flags == 0) pc += arg;
+				else if (flags == 2) pc = arg;
+				else if (outside(arg, dataSize)) { status = fault(Status.DATA_ACCESS, arg); break loop; }
+				else if (flags == 4) pc += Memory.read(data, memory, arg);
+				else pc = Memory.read(data, memory, arg);
+				leader = true;
+				break;
+			case Instruction.JMPZ:
+				if (accum != 0) pc++;
+				else if (flags == 0) pc += arg;
+				else if (flags == 2) pc = arg;
+				else if (outside(arg, dataSize)) { status = fault(Status.DATA_ACCESS, arg); break loop; }
+				else if (flags == 4) pc += Memory.read(data, memory, arg);
+				else pc = Memory.read(data, memory, arg);
+				leader = true;
+				break;
+			case Instruction.LOD:
+				if (flags == 2) accum = arg;
+				else if ((address = address(flags, arg, data, dataSize)) >= 0) accum = Memory.read(data, memory, address);
+				else { status = -address; break loop; }
+				pc++;
+				break;
+			case Instruction.STO:
+				if (flags == 0) address = arg;
+				else if (flags != 4) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				else if (outside(arg, dataSize)) { status = fault(Status.DATA_ACCESS, arg); break loop; }
+				else address = Memory.read(data, memory, arg);
+				if (outside(address, dataSize)) { status = fault(Status.DATA_ACCESS, address); break loop; }
+				memory.setData(address, accum);
+				pc++;
+				break;
+			case Instruction.AND:
+				if (flags == 2) accum = accum != 0 && arg != 0 ? 1 : 0;
+				else if (flags != 0) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				else if (accum != 0 && outside(arg, dataSize)) { status = fault(Status.DATA_ACCESS, arg); break loop; }
+				else accum = accum != 0 && Memory.read(data, memory, arg) != 0 ? 1 : 0;
+				pc++;
+				break;
+			case Instruction.CMPL:
+				if (flags != 0) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				if (outside(arg, dataSize)) { status = fault(Status.DATA_ACCESS, arg); break loop; }
+				accum = Memory.read(data, memory, arg) < 0 ? 1 : 0;
+				pc++;
+				break;
+			case Instruction.CMPZ:
+				if (flags != 0) { status = fault(Status.ILLEGAL_FLAGS, flags); break loop; }
+				if (outside(arg, dataSize)) { status = fault(Status.DATA_ACCESS, arg); break loop; }
+				accum = Memory.read(data, memory, arg) == 0 ? 1 : 0;
+				pc++;
+				break;
+			case Instruction.ADD:
+				if (flags == 2) accum += arg;
+				else if ((address = address(flags, arg, data, dataSize)) >= 0) accum += Memory.read(data, memory, address);
+				else { status = -address; break loop; }
+				pc++;
+				break;
+			case Instruction.SUB:
+				if (flags == 2) accum -= arg;
+				else if ((address = address(flags, arg, data, dataSize)) >= 0) accum -= Memory.read(data, memory, address);
+				else { status = -address; break loop; }
+				pc++;
+				break;
+			case Instruction.MUL:
+				if (flags == 2) accum *= arg;
+				else if ((address = address(flags, arg, data, dataSize)) >= 0) accum *= Memory.read(data, memory, address);
+				else { status = -address; break loop; }
+				pc++;
+				break;
+			case Instruction.DIV:
+				int divisor;
+				if (flags == 2) divisor = arg;
+				else if ((address = address(flags, arg, data, dataSize)) >= 0) divisor = Memory.read(data, memory, address);
+				else { status = -address; break loop; }
+				if (divisor == 0) { status = Status.DIVIDE_BY_ZERO; break loop; }
+				accum /= divisor;
+				pc++;
+				break;
+			// superinstructions run their instructions back to back, keeping 
+			// pc and steps exact in case one of them faults
+			case Superinstructions.LOAD_STORE:
+				if (!Superinstructions.readable(slot, data, memory)) { status = pointerFault(slot); break loop; }
+				accum = Superinstructions.load(slot, data, memory);
+				pc++;
+				steps++;
+				address = Superinstructions.target(code[pc], data, memory);
+				if (outside(address, dataSize)) { status = fault(Status.DATA_ACCESS, address); break loop; }
+				memory.setData(address, accum);
+				pc++;
+				break;
+			case Superinstructions.LOAD_OP_STORE:
+				if (!Superinstructions.readable(slot, data, memory)) { status = pointerFault(slot); break loop; }
+				accum = Superinstructions.load(slot, data, memory);
+				pc++;
+				steps++;
+				if (!Superinstructions.readable(code[pc], data, memory)) { status = pointerFault(code[pc]); break loop; }
+				accum = Superinstructions.apply(accum, code[pc], data, memory);
+				pc++;
+				steps++;
+				address = Superinstructions.target(code[pc], data, memory);
+				if (outside(address, dataSize)) { status = fault(Status.DATA_ACCESS, address); break loop; }
+				memory.setData(address, accum);
+				pc++;
+				break;
+			case Superinstructions.COMPARE_BRANCH:
+				accum = Superinstructions.compare(slot, data, memory);
+				pc++;
+				steps++;
+				accum = accum == 0 ? 1 : 0;
+				pc++;
+				steps++;
+				pc = accum == 0 ? Superinstructions.branch(code[pc], pc) : pc + 1;
+				leader = true;
+				break;
+			default:
+				status = fault(Status.ILLEGAL_OPCODE, op);
+				break loop;
 			}
-			cpu.pc++;			
-		});
+			
+			steps++;
+			
+		}
+		
+		cpu.pc = pc;
+		cpu.accum = accum;
+		executed = steps;
+		
+		return status;
+		
+	}
+	
+	// the data index a STO in slot will write, or -1 for any other 
+	// instruction or one that will fault
+	private int stored(long slot) {
+		
+		int decoded = Memory.decoded(slot);
+		if (Instruction.decodedOp(decoded) != Instruction.STO) return -1;
+		int flags = Instruction.decodedFlags(decoded);
+		int arg = Memory.arg(slot);
+		int dataSize = memory.getDataSize();
+		if (flags == 0) return outside(arg, dataSize) ? -1 : arg;
+		if (flags != 4 || outside(arg, dataSize)) return -1;
+		int pointer = memory.read(arg);
+		return outside(pointer, dataSize) ? -1 : pointer;
+		
+	}
+	
+	// the data index read with direct (flags 0) or indirect (flags 4) addressing,
+	// or minus the fault status if the flags are illegal or an index is outside data
+	private int address(int flags, int arg, int[] data, int dataSize) {
+		
+		if (flags == 6) return -fault(Status.ILLEGAL_FLAGS, flags);
+		if (outside(arg, dataSize)) return -fault(Status.DATA_ACCESS, arg);
+		if (flags == 0) return arg;
+		int pointer = Memory.read(data, memory, arg);
+		if (outside(pointer, dataSize)) return -fault(Status.DATA_ACCESS, pointer);
+		return pointer;
+		
+	}
+	
+	// the fault of a superinstruction whose first read goes through a pointer outside data
+	private int pointerFault(long slot) {
+		return fault(Status.DATA_ACCESS, memory.read(Memory.arg(slot)));
+	}
+	
+	private int fault(int status, int detail) {
+		
+		faultDetail = detail;
+		return status;
+		
+	}
+	
+	private static boolean outside(int index, int dataSize) {
+		return index < 0 || index >= dataSize;
+	}
+	
+	private static IllegalInstructionException illegalFlags(int flags) {
+		String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+		return new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+	}
+	
+	/**
+	 * Executes instr as if it were the instruction at the PC, with the 
+	 * interpreter step() uses, which is behind every ACTION entry. A fault 
+	 * throws what step() throws and a HALT calls the HaltCallback, but the 
+	 * parity is not checked, as the caller is expected to have done that, 
+	 * and the PC need not be in code memory, as it never had to be.
+	 */
+	private void perform(Instruction instr) {
+		
+		// the one slot the interpreter reads, this instruction at the PC with its parity taken as checked
+		action[0] = Memory.pack(instr.opcode, instr.arg) | (long)Instruction.PARITY_OK << 40;
+		int status = interpret(1, action, cpu.pc, 1, null, null);
+		
+		if (status == Status.HALTED) {
+			callBack.halt();
+		}
+		else if (Status.isFault(status)) {
+			throw toException(status);
+		}
+		
+	}
+	
+	public Machine(HaltCallback cb) {
+		
+		this(cb, Memory.DATA_SIZE, Memory.CODE_SIZE);
+		
+	}
+	
+	/**
+	 * @param dataSize the number of data cells, see Memory
+	 * @param codeSize the largest number of instructions
+	 */
+	public Machine(HaltCallback cb, int dataSize, int codeSize) {
+		
+		this(cb, dataSize, codeSize, Memory.Backend.HEAP);
+		
+	}
+	
+	/**
+	 * @param backend where the data is kept, call close() when done with 
+	 * an OFF_HEAP machine
+	 */
+	public Machine(HaltCallback cb, int dataSize, int codeSize, Memory.Backend backend) {
+		
+		memory = new Memory(dataSize, codeSize, backend);
+		callBack = cb;
+		
+		// every entry runs its instruction with the interpreter, see perform
+		for (int op : OPCODES.values()) {
+			actions.put(op, this::perform);
+		}
 		
 	}
 	
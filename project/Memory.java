@@ -1,33 +1,219 @@
 package project;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Code and data memory of one Machine. The sizes are fixed per instance,
+ * DATA_SIZE and CODE_SIZE being the defaults. Data is kept in pages of 
+ * PAGE_SIZE cells that are only allocated when first written, so a big 
+ * memory that a program touches sparsely costs only the pages it uses. 
+ * The pages are on the Java heap, or with Backend.OFF_HEAP in native 
+ * memory that close() releases. A heap memory of at most PAGE_SIZE cells 
+ * is a single flat page. Code grows as instructions are added, up to the 
+ * code size. snapshot() shares the pages and the code with the Snapshot 
+ * and copies each the first time it is written afterwards.
+ */
 public class Memory {
 
 	public static final int DATA_SIZE = 512;
-	private int[] data = new int[DATA_SIZE];
-	
 	public static final int CODE_SIZE = 256;
-	private List<Instruction> code = new ArrayList<>();
+	static final int PAGE_BITS = 12;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	static final int PAGE_MASK = PAGE_SIZE - 1;
+	
+	public enum Backend {
+		HEAP, OFF_HEAP
+	}
+	
+	private int dataSize;
+	private int codeSize;
+	private Backend backend;
+	private DataStore store;
+	
+	// Each code slot is packed into one long: the arg in the low 32 bits, 
+	// the opcode in bits 32-39 and its Instruction.decode form from bit 40.
+	// Instruction objects are only made when a caller asks for one.
+	private long[] code;
+	private int programSize = 0;
+	private int codeVersion = 0; // changes whenever the code changes
+	private boolean codeShared = false; // code is a snapshot's too, copy it before writing
+	// Superinstructions marks for each code slot, redone after the code changes
+	private byte[] fusions = new byte[0];
+	private int fusionVersion = -1;
+	private List<Instruction> codeView = new AbstractList<Instruction>() {
+		public Instruction get(int index) {
+			return getCode(index);
+		}
+		public Instruction set(int index, Instruction instr) {
+			Instruction old = getCode(index);
+			setCode(index, instr);
+			return old;
+		}
+		public int size() {
+			return programSize;
+		}
+	};
 	private int changedDataIndex = -1;
+	// Dirty tracking for the views: every write stamps its cell with the 
+	// current frame, and markFrame() starts a new one. A view that keeps 
+	// the frame it last drew repaints only the cells stamped after it.
+	// The stamps are paged like the data and only kept once a view has 
+	// called markFrame(). A page without stamps was last written by the 
+	// clearData() at clearedFrame.
+	private int[][] written;
+	private int frame = 0;
+	private int clearedFrame = 0;
+	
+	public Memory() {
+		
+		this(DATA_SIZE, CODE_SIZE);
+		
+	}
+	
+	/**
+	 * @param dataSize the number of data cells
+	 * @param codeSize the largest number of instructions
+	 */
+	public Memory(int dataSize, int codeSize) {
+		
+		this(dataSize, codeSize, Backend.HEAP);
+		
+	}
+	
+	/**
+	 * @param dataSize the number of data cells
+	 * @param codeSize the largest number of instructions
+	 * @param backend where the data pages are kept
+	 */
+	public Memory(int dataSize, int codeSize, Backend backend) {
+		
+		if (dataSize <= 0 || codeSize <= 0) {
+			throw new IllegalArgumentException("Memory sizes must be positive: " + dataSize + ", " + codeSize);
+		}
+		
+		this.dataSize = dataSize;
+		this.codeSize = codeSize;
+		this.backend = backend;
+		code = new long[Math.min(codeSize, CODE_SIZE)];
+		
+		store = backend == Backend.OFF_HEAP ? new OffHeapStore(dataSize) : new HeapStore(dataSize);
+		written = new int[(int)((dataSize + (long)PAGE_MASK) >>> PAGE_BITS)][];
+		
+	}
+	
+	/**
+	 * Releases the data pages. Off-heap pages go back to a pool shared by 
+	 * all off-heap memories. The memory must not be written afterwards.
+	 */
+	public void close() {
+		
+		store.close();
+		
+	}
+	
+	static long pack(byte opcode, int arg) {
+		
+		return ((long)Instruction.decode(opcode) << 40) 
+				| ((long)(opcode & 0xFF) << 32) 
+				| (arg & 0xFFFFFFFFL);
+		
+	}
+	
+	static int arg(long slot) {
+		return (int)slot;
+	}
+	
+	static byte opcode(long slot) {
+		return (byte)(slot >>> 32);
+	}
+	
+	static int decoded(long slot) {
+		return (int)(slot >>> 40);
+	}
+	
+	static Instruction unpack(long slot) {
+		return new Instruction(opcode(slot), arg(slot));
+	}
+	
+	int getDataSize() {
+		
+		return dataSize;
+		
+	}
+	
+	int getCodeSize() {
+		
+		return codeSize;
+		
+	}
 	
 	int[] getData(int min, int max) {
 		
-		return Arrays.copyOfRange(data, min, max);
+		if (min < 0 || max > dataSize || min > max) {
+			throw new ArrayIndexOutOfBoundsException("Range [" + min + ", " + max 
+					+ ") out of bounds for length " + dataSize);
+		}
+		
+		int[] copy = new int[max - min];
+		for (int i = min; i < max; i++) {
+			copy[i - min] = read(i);
+		}
+		return copy;
 		
 	}
 	
+	/**
+	 * @return a copy of all the data
+	 */
 	int[] getData() {
 		
-		return data;
+		return getData(0, dataSize);
+		
+	}
+	
+	/**
+	 * @return the data array of a heap memory that is one flat page, null 
+	 * if the memory is paged or off the heap
+	 */
+	int[] getFlatData() {
+		
+		return store.getFlatData();
 		
 	}
 	
 	int getData(int index) {
 		
-		return data[index];
+		if (index < 0 || index >= dataSize) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index 
+					+ " out of bounds for length " + dataSize);
+		}
+		
+		return read(index);
+		
+	}
+	
+	// getData(index) for an index already known to be in range
+	int read(int index) {
+		
+		return store.read(index);
+		
+	}
+	
+	// read(index) for the hot loops, which keep getFlatData() in flat
+	static int read(int[] flat, Memory memory, int index) {
+		
+		return flat != null ? flat[index] : memory.read(index);
+		
+	}
+	
+	/**
+	 * @return the number of data pages that have been allocated
+	 */
+	int getAllocatedPages() {
+		
+		return store.getAllocatedPages();
 		
 	}
 	
@@ -37,42 +223,171 @@ public class Memory {
 		
 	}
 	
+	/**
+	 * Ends the current frame of writes.
+	 * @return the frame that ended, to pass to getChangedData next time
+	 */
+	int markFrame() {
+		
+		return frame++;
+		
+	}
+	
+	/**
+	 * Puts the indices in [min, max) written after frame into changed.
+	 * A frame of -1 gives every index.
+	 * @return how many indices were put in changed
+	 */
+	int getChangedData(int frame, int min, int max, int[] changed) {
+		
+		int count = 0;
+		for (int i = min; i < max; i++) {
+			
+			int[] stamps = written[i >>> PAGE_BITS];
+			if ((stamps == null ? clearedFrame : stamps[i & PAGE_MASK]) > frame) {
+				changed[count++] = i;
+			}
+			
+		}
+		
+		return count;
+		
+	}
+	
 	List<Instruction> getCode() {
 		
+		return codeView;
+		
+	}
+	
+	long[] getPackedCode() {
+		
 		return code;
 		
 	}
 	
+	byte[] getFusions() {
+		
+		if (fusionVersion != codeVersion) {
+			
+			if (fusions.length != code.length) {
+				fusions = new byte[code.length];
+			}
+			Superinstructions.fuse(code, programSize, dataSize, fusions);
+			fusionVersion = codeVersion;
+			
+		}
+		
+		return fusions;
+		
+	}
+	
 	void setData(int index, int value) {
 		
-		if (index >= 0 && index < DATA_SIZE) {
+		if (index < 0 || index >= dataSize) {
+			throw new DataAccessException("Index " + index + " out of bounds for length " + dataSize);
+		}
+		
+		store.write(index, value);
+		// until the first markFrame() every cell reads as written at clearedFrame
+		if (frame != clearedFrame) {
+			stamp(index);
+		}
+		changedDataIndex = index;
+		
+	}
+	
+	private void stamp(int index) {
+		
+		int[] stamps = written[index >>> PAGE_BITS];
+		if (stamps == null) {
 			
-			data[index] = value;
-			changedDataIndex = index;
+			stamps = written[index >>> PAGE_BITS] = new int[PAGE_SIZE];
+			Arrays.fill(stamps, clearedFrame);
 			
 		}
 		
-		//Else throw exception?
+		stamps[index & PAGE_MASK] = frame;
 		
 	}
 	
 	void clearData() {
 		
-		for (int i = 0; i < data.length; i++) {
+		store.clear();
+		written();
+		
+	}
+	
+	// every cell now reads as written by the current frame
+	private void written() {
+		
+		Arrays.fill(written, null);
+		clearedFrame = frame;
+		changedDataIndex = -1;
+		
+	}
+	
+	/**
+	 * Takes a snapshot of the data and code, which shares their pages 
+	 * with this memory until either is written.
+	 */
+	Snapshot snapshot(int pc, int accum) {
+		
+		codeShared = true;
+		return new Snapshot(store.snapshot(), code, programSize, dataSize, codeSize, backend, pc, accum);
+		
+	}
+	
+	/**
+	 * Puts back the data and code of snapshot, which must be of a memory 
+	 * of the same sizes and backend. Every cell reads as changed to the 
+	 * views.
+	 */
+	void restore(Snapshot snapshot) {
+		
+		if (snapshot.dataSize != dataSize || snapshot.codeSize != codeSize || snapshot.backend != backend) {
+			throw new IllegalArgumentException("Snapshot of a " + snapshot.backend + " memory of " 
+					+ snapshot.dataSize + ", " + snapshot.codeSize + " cannot be restored into a " 
+					+ backend + " memory of " + dataSize + ", " + codeSize);
+		}
+		
+		store.restore(snapshot.store);
+		written();
+		// compiled blocks and fusions stay valid if the code was not written since
+		if (code != snapshot.code || programSize != snapshot.programSize) {
 			
-			data[i] = 0;
+			code = snapshot.code;
+			programSize = snapshot.programSize;
+			codeVersion++;
 			
 		}
+		codeShared = true;
 		
-		changedDataIndex = -1;
+	}
+	
+	Backend getBackend() {
+		
+		return backend;
+		
+	}
+	
+	// makes code this memory's own before it is written
+	private void unshare() {
+		
+		if (codeShared) {
+			
+			code = code.clone();
+			codeShared = false;
+			
+		}
 		
 	}
 	
 	Instruction getCode(int index) {
 		
-		if (index >= 0 && index < code.size()) {
+		if (index >= 0 && index < programSize) {
 			
-			return code.get(index);
+			return unpack(code[index]);
 			
 		}
 		else {
@@ -85,11 +400,13 @@ public class Memory {
 	
 	public Instruction[] getCode(int min, int max) {
 		
-		if (min >= 0 && max >= min && max < code.size()) {
+		if (min >= 0 && max >= min && max < programSize) {
 		
-			Instruction[] temp = {};
-			temp = code.toArray(temp);
-			return Arrays.copyOfRange(temp, min, max); 
+			Instruction[] temp = new Instruction[max - min];
+			for (int i = min; i < max; i++) {
+				temp[i - min] = unpack(code[i]);
+			}
+			return temp; 
 			
 		}
 		else {
@@ -102,19 +419,71 @@ public class Memory {
 	
 	void addCode(Instruction value) {
 		
-		if (code.size() < CODE_SIZE) {
-			
-			code.add(value);
-			
+		addCode(value.opcode, value.arg);
+		
+	}
+	
+	void addCode(byte opcode, int arg) {
+		
+		if (programSize >= codeSize) {
+			throw new CodeAccessException("Code memory is full at " + codeSize + " instructions");
+		}
+		
+		if (programSize == code.length) {
+			code = Arrays.copyOf(code, (int)Math.min(codeSize, 2L*code.length));
+			codeShared = false;
+		}
+		
+		unshare();
+		code[programSize++] = pack(opcode, arg);
+		codeVersion++;
+		
+	}
+	
+	/**
+	 * Appends already packed instructions, growing the code array at most
+	 * once.
+	 */
+	void addCode(long[] slots) {
+		
+		int start = programSize;
+		int end = reserve(slots.length);
+		System.arraycopy(slots, 0, code, start, end - start);
+		added(start, end, slots.length);
+		
+	}
+	
+	// grows the code array once for count more instructions, as far as the code size
+	private int reserve(int count) {
+		
+		int end = (int)Math.min(codeSize, (long)programSize + count);
+		if (end > code.length) {
+			code = Arrays.copyOf(code, (int)Math.min(codeSize, Math.max(end, 2L*code.length)));
+			codeShared = false;
+		}
+		unshare();
+		return end;
+		
+	}
+	
+	private void added(int start, int end, int count) {
+		
+		programSize = end;
+		codeVersion++;
+		
+		if (end - start < count) {
+			throw new CodeAccessException("Code memory is full at " + codeSize + " instructions");
 		}
 		
 	}
 	
 	void setCode(int index, Instruction instr) {
 		
-		if (index >= 0 && index < code.size()) {
+		if (index >= 0 && index < programSize) {
 			
-			code.set(index, instr);
+			unshare();
+			code[index] = pack(instr.opcode, instr.arg);
+			codeVersion++;
 			
 		}
 		else {
@@ -127,13 +496,20 @@ public class Memory {
 	
 	void clearCode() {
 		
-		code.clear();
+		programSize = 0;
+		codeVersion++;
+		
+	}
+	
+	int getCodeVersion() {
+		
+		return codeVersion;
 		
 	}
 	
 	int getProgramSize() {
 		
-		return code.size();
+		return programSize;
 		
 	}
 	
@@ -0,0 +1,152 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class MemoryTester {
+
+	// Assembled opcodes with parity: LOD M = 0b00101011, STO = 0b00110000,
+	// STO N = 0b00110101, LOD = 0b00101000, ADD = 0b01010000, HALT = 0b00010001
+	private Machine sparse(int dataSize, int compileThreshold, Memory.Backend backend) {
+		Machine m = new Machine(() -> {}, dataSize, Memory.CODE_SIZE, backend);
+		m.addCode(new Instruction((byte)0b00101011, 7));       // 0: LOD M7
+		m.addCode(new Instruction((byte)0b00110000, 999_999)); // 1: STO 999999
+		m.addCode(new Instruction((byte)0b00101011, 500_000)); // 2: LOD M500000
+		m.addCode(new Instruction((byte)0b00110000, 3));       // 3: STO 3
+		m.addCode(new Instruction((byte)0b00101011, 7));       // 4: LOD M7
+		m.addCode(new Instruction((byte)0b00110101, 3));       // 5: STO N3
+		m.addCode(new Instruction((byte)0b00101000, 999_999)); // 6: LOD 999999
+		m.addCode(new Instruction((byte)0b01010000, 500_000)); // 7: ADD 500000
+		m.addCode(new Instruction((byte)0b00010001, 0));       // 8: HALT
+		m.setCompileThreshold(compileThreshold);
+		return m;
+	}
+
+	@Test
+	// a big memory only allocates the pages that are written
+	public void testSparsePages() {
+		Memory memory = new Memory(1 << 20, Memory.CODE_SIZE);
+		assertEquals(0, memory.getAllocatedPages());
+		memory.setData(5, 1);
+		memory.setData(Memory.PAGE_SIZE + 5, 2);
+		memory.setData(Memory.PAGE_SIZE + 6, 3);
+		memory.setData((1 << 20) - 1, 4);
+		assertAll (
+				() -> assertEquals(3, memory.getAllocatedPages()),
+				() -> assertEquals(2, memory.getData(Memory.PAGE_SIZE + 5)),
+				() -> assertEquals(4, memory.getData((1 << 20) - 1)),
+				() -> assertEquals(0, memory.getData(3 * Memory.PAGE_SIZE))
+				);
+		memory.clearData();
+		assertEquals(0, memory.getAllocatedPages());
+		assertEquals(0, memory.getData(5));
+	}
+
+	@Test
+	// a program runs the same on a paged memory in the interpreter and compiled
+	public void testPagedProgram() {
+		for (int threshold : new int[] {0, 1}) {
+			Machine m = sparse(1_000_000, threshold, Memory.Backend.HEAP);
+			m.runUntilHalt();
+			m.setPC(0);
+			RunResult result = m.runUntilHalt();
+			assertAll (
+					() -> assertEquals(RunResult.HaltReason.HALTED, result.getReason()),
+					() -> assertEquals(7, m.getData(999_999)),
+					() -> assertEquals(500_000, m.getData(3)),
+					() -> assertEquals(7, m.getData(500_000)),
+					() -> assertEquals(14, m.getAccum())
+					);
+		}
+	}
+
+	@Test
+	// addresses past the data size fault like any other, also for a store
+	public void testOutsideData() {
+		Machine m = sparse(Memory.DATA_SIZE, 0, Memory.Backend.HEAP);
+		assertEquals(Status.DATA_ACCESS, m.tryRun(10));
+		assertAll (
+				() -> assertEquals(1, m.getPC()),
+				() -> assertEquals(999_999, m.getFaultDetail()),
+				() -> assertThrows(DataAccessException.class, () -> m.setData(Memory.DATA_SIZE, 1)),
+				() -> assertThrows(ArrayIndexOutOfBoundsException.class, () -> m.getData(-1))
+				);
+	}
+
+	@Test
+	// code grows up to the code size and no further
+	public void testCodeSize() {
+		Machine m = new Machine(() -> {}, 16, 1000);
+		for (int i = 0; i < 1000; i++) {
+			m.addCode(new Instruction((byte)0b00101011, i)); // LOD Mi
+		}
+		assertEquals(999, m.getCode(999).arg);
+		assertThrows(CodeAccessException.class, () -> m.addCode(new Instruction((byte)0b00010001, 0)));
+		assertEquals(1000, m.getProgramSize());
+	}
+
+	@Test
+	// a paged memory reports the cells written since a frame, and every cell after a clear
+	public void testPagedChangedData() {
+		Memory memory = new Memory(3 * Memory.PAGE_SIZE, Memory.CODE_SIZE);
+		int[] changed = new int[3 * Memory.PAGE_SIZE];
+		int frame = memory.markFrame();
+		memory.setData(Memory.PAGE_SIZE + 1, 9);
+		int count = memory.getChangedData(frame, 0, 3 * Memory.PAGE_SIZE, changed);
+		assertArrayEquals(new int[] {Memory.PAGE_SIZE + 1}, Arrays.copyOf(changed, count));
+		frame = memory.markFrame();
+		memory.clearData();
+		assertEquals(3 * Memory.PAGE_SIZE, memory.getChangedData(frame, 0, 3 * Memory.PAGE_SIZE, changed));
+	}
+
+	@Test
+	// the same program gives the same results with its data off the heap, small or big
+	public void testOffHeapProgram() {
+		for (int dataSize : new int[] {1_000_000, Memory.DATA_SIZE}) {
+			for (int threshold : new int[] {0, 1}) {
+				Machine heap = sparse(dataSize, threshold, Memory.Backend.HEAP);
+				Machine offHeap = sparse(dataSize, threshold, Memory.Backend.OFF_HEAP);
+				for (int run = 0; run < 2; run++) {
+					heap.setPC(0);
+					offHeap.setPC(0);
+					assertEquals(heap.tryRun(100), offHeap.tryRun(100));
+				}
+				assertAll (
+						() -> assertEquals(heap.getPC(), offHeap.getPC()),
+						() -> assertEquals(heap.getAccum(), offHeap.getAccum()),
+						() -> assertEquals(heap.getChangedDataIndex(), offHeap.getChangedDataIndex()),
+						() -> assertArrayEquals(heap.getData(), offHeap.getData())
+						);
+				offHeap.close();
+			}
+		}
+	}
+
+	@Test
+	// closing an off-heap memory pools its pages, and the next memory gets them zeroed
+	public void testOffHeapClose() {
+		Memory memory = new Memory(1 << 20, Memory.CODE_SIZE, Memory.Backend.OFF_HEAP);
+		memory.setData(1, 11);
+		memory.setData(Memory.PAGE_SIZE, 12);
+		memory.setData((1 << 20) - 1, 13);
+		assertEquals(3, memory.getAllocatedPages());
+		int pooled = OffHeapStore.getPooledPages();
+		memory.close();
+		assertEquals(Math.min(pooled + 3, OffHeapStore.POOL_PAGES), OffHeapStore.getPooledPages());
+		assertThrows(IllegalStateException.class, () -> memory.setData(1, 1));
+		Memory next = new Memory(1 << 20, Memory.CODE_SIZE, Memory.Backend.OFF_HEAP);
+		next.setData(0, 1);
+		assertAll (
+				() -> assertEquals(0, next.getData(1)),
+				() -> assertEquals(0, next.getData(Memory.PAGE_SIZE - 1)), // 13 before the pool
+				() -> assertEquals(1, next.getData(0))
+				);
+		next.close();
+	}
+
+}
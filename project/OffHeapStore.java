@@ -0,0 +1,183 @@
+package project;
+
+import static project.Memory.PAGE_BITS;
+import static project.Memory.PAGE_MASK;
+import static project.Memory.PAGE_SIZE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Data in direct ByteBuffer pages outside the Java heap, so the GC never
+ * scans or copies it however big the memory grows. Pages are allocated
+ * on first write, like HeapStore's paged form. clear() and close() give
+ * the pages, zeroed, to a pool shared by every off-heap store, and the
+ * next store that needs a page takes one from there before allocating
+ * native memory. The pool keeps at most POOL_PAGES pages, the rest are
+ * freed by their Cleaner once unreachable. A page shared with a snapshot
+ * is copied before it is written and never goes to the pool.
+ */
+class OffHeapStore implements DataStore {
+
+	static final int POOL_PAGES = 4096; // 64 MB
+	private static final int PAGE_BYTES = PAGE_SIZE * Integer.BYTES;
+	// every untouched page, never written
+	private static final ByteBuffer ZERO_PAGE = newPage();
+	private static final ArrayDeque<ByteBuffer> POOL = new ArrayDeque<>();
+
+	private ByteBuffer[] pages;
+	// a page is this store's own to write and release when its owner is
+	// epoch, else it is ZERO_PAGE or shared with a snapshot, and is copied
+	// first
+	private int[] owners;
+	private int epoch = 1;
+	private boolean closed;
+
+	OffHeapStore(int size) {
+
+		pages = new ByteBuffer[(int)((size + (long)PAGE_MASK) >>> PAGE_BITS)];
+		Arrays.fill(pages, ZERO_PAGE);
+		owners = new int[pages.length];
+
+	}
+
+	private static ByteBuffer newPage() {
+		return ByteBuffer.allocateDirect(PAGE_BYTES).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public int read(int index) {
+		return pages[index >>> PAGE_BITS].getInt((index & PAGE_MASK) << 2);
+	}
+
+	@Override
+	public void write(int index, int value) {
+
+		int p = index >>> PAGE_BITS;
+		ByteBuffer page = owners[p] == epoch ? pages[p] : own(p);
+		page.putInt((index & PAGE_MASK) << 2, value);
+
+	}
+
+	// gives page p a copy of its own, a zero page if it was never written
+	private ByteBuffer own(int p) {
+
+		ByteBuffer page = allocate();
+		if (pages[p] != ZERO_PAGE) {
+			page.put(0, pages[p], 0, PAGE_BYTES);
+		}
+		owners[p] = epoch;
+		return pages[p] = page;
+
+	}
+
+	private ByteBuffer allocate() {
+
+		if (closed) {
+			throw new IllegalStateException("Memory is closed");
+		}
+
+		ByteBuffer page;
+		synchronized (POOL) {
+			page = POOL.poll();
+		}
+		return page != null ? page : newPage();
+
+	}
+
+	@Override
+	public void clear() {
+
+		for (int i = 0; i < pages.length; i++) {
+
+			if (owners[i] == epoch) {
+				release(pages[i]);
+			}
+			pages[i] = ZERO_PAGE;
+
+		}
+		share();
+
+	}
+
+	@Override
+	public DataStore snapshot() {
+
+		OffHeapStore copy = new OffHeapStore(0);
+		copy.pages = pages.clone();
+		copy.owners = new int[pages.length];
+		share();
+		return copy;
+
+	}
+
+	@Override
+	public void restore(DataStore snapshot) {
+
+		OffHeapStore from = (OffHeapStore)snapshot;
+		for (int i = 0; i < pages.length; i++) {
+
+			if (owners[i] == epoch) {
+				release(pages[i]);
+			}
+			pages[i] = from.pages[i];
+
+		}
+		share();
+
+	}
+
+	// no page is this store's own any more, they are all copied when next written
+	private void share() {
+
+		if (++epoch == 0) {
+			Arrays.fill(owners, 0);
+			epoch = 1;
+		}
+
+	}
+
+	private static void release(ByteBuffer page) {
+
+		page.put(0, ZERO_PAGE, 0, PAGE_BYTES);
+		synchronized (POOL) {
+			if (POOL.size() < POOL_PAGES) POOL.push(page);
+		}
+
+	}
+
+	@Override
+	public int[] getFlatData() {
+		return null;
+	}
+
+	@Override
+	public int getAllocatedPages() {
+
+		int count = 0;
+		for (ByteBuffer page : pages) {
+			if (page != ZERO_PAGE) count++;
+		}
+		return count;
+
+	}
+
+	@Override
+	public void close() {
+
+		clear();
+		closed = true;
+
+	}
+
+	static int getPooledPages() {
+
+		synchronized (POOL) {
+			return POOL.size();
+		}
+
+	}
+
+}
@@ -0,0 +1,349 @@
+package project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import project.Assembler.DataPair;
+
+/**
+ * The version 2 pexe format. All ints are big-endian, like version 1.
+ * <pre>
+ * header         magic "PEXE", version 2, number of sections, CRC32 of the table
+ * section table  per section: type, offset, length in bytes, CRC32 of the section
+ * CODE           instruction count, the arguments, then the opcodes as bytes
+ * DENSE_DATA     first address, then the value of every cell from there on
+ * SPARSE_DATA    address, value pairs
+ * </pre>
+ * Sections start on a 4 byte boundary and there is at most one data
+ * section: dense when the values fill at least half the addresses they
+ * span, which is then the smaller of the two. A version 1 file starts
+ * with an opcode or -1, never the magic number, so Loader can tell them
+ * apart from the first int. Loaders older than this format only read
+ * version 1, which is what the assemblers write unless asked for 2.
+ */
+public final class Pexe {
+
+	static final int MAGIC = 0x50455845; // "PEXE"
+	static final int VERSION = 2;
+	public static final int VERSION_1 = 1;
+	public static final int VERSION_2 = VERSION;
+	static final int CODE = 1;
+	static final int DENSE_DATA = 2;
+	static final int SPARSE_DATA = 3;
+	private static final int HEADER_BYTES = 16;
+	private static final int ENTRY_BYTES = 16;
+
+	private Pexe() {}
+
+	/**
+	 * Writes program in version 1, which the assemblers write by default.
+	 */
+	public static void write(File file, Program program) throws IOException {
+		write(file, program, VERSION_1);
+	}
+
+	/**
+	 * @param version VERSION_1 or VERSION_2
+	 */
+	public static void write(File file, Program program, int version) throws IOException {
+		Files.write(file.toPath(), encode(program, version));
+	}
+
+	static byte[] encode(Program program, int version) {
+
+		checkVersion(version);
+		return version == VERSION_1 ? encodeVersion1(program) : encodeVersion2(program);
+
+	}
+
+	/**
+	 * @throws IllegalArgumentException unless version is VERSION_1 or VERSION_2
+	 */
+	public static void checkVersion(int version) {
+
+		if (version != VERSION_1 && version != VERSION_2) {
+			throw new IllegalArgumentException("No pexe version " + version + ", only 1 and 2");
+		}
+
+	}
+
+	// every opcode and argument as ints, -1, then the address and value pairs
+	private static byte[] encodeVersion1(Program program) {
+
+		int count = program.getProgramSize();
+		int pairs = program.getDataCount();
+		ByteBuffer out = ByteBuffer.allocate(8*count + 4 + 8*pairs);
+		for (int i = 0; i < count; i++) {
+			out.putInt(Memory.opcode(program.getSlot(i))).putInt(Memory.arg(program.getSlot(i)));
+		}
+		out.putInt(-1);
+		for (int i = 0; i < pairs; i++) {
+			out.putInt(program.getAddress(i)).putInt(program.getValue(i));
+		}
+		return out.array();
+
+	}
+
+	public static void write(File file, List<Instruction> code, List<DataPair> data) throws IOException {
+		write(file, Program.of(code, data));
+	}
+
+	static byte[] encode(List<Instruction> code, List<DataPair> data) {
+		return encode(Program.of(code, data));
+	}
+
+	// in version 1, like write
+	static byte[] encode(Program program) {
+		return encode(program, VERSION_1);
+	}
+
+	private static byte[] encodeVersion2(Program program) {
+
+		int count = program.getProgramSize();
+		int pairs = program.getDataCount();
+		int sections = pairs == 0 ? 1 : 2;
+		int codeOffset = HEADER_BYTES + sections*ENTRY_BYTES;
+		int codeLength = 4 + 5*count;
+		int dataOffset = (codeOffset + codeLength + 3) & ~3;
+
+		int dataType = SPARSE_DATA;
+		int min = 0;
+		int span = 0;
+		if (pairs > 0) {
+
+			min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for (int i = 0; i < pairs; i++) {
+				min = Math.min(min, program.getAddress(i));
+				max = Math.max(max, program.getAddress(i));
+			}
+			if ((long)max - min + 1 <= 2L*pairs) {
+				dataType = DENSE_DATA;
+				span = max - min + 1;
+			}
+
+		}
+		int dataLength = pairs == 0 ? 0 : dataType == DENSE_DATA ? 4 + 4*span : 8*pairs;
+
+		ByteBuffer out = ByteBuffer.allocate(dataOffset + dataLength);
+		out.putInt(MAGIC).putInt(VERSION).putInt(sections);
+
+		out.position(codeOffset);
+		out.putInt(count);
+		for (int i = 0; i < count; i++) {
+			out.putInt(Memory.arg(program.getSlot(i)));
+		}
+		for (int i = 0; i < count; i++) {
+			out.put(Memory.opcode(program.getSlot(i)));
+		}
+
+		if (dataType == DENSE_DATA) {
+
+			out.putInt(dataOffset, min);
+			// in order, so a later pair for an address wins as in version 1
+			for (int i = 0; i < pairs; i++) {
+				out.putInt(dataOffset + 4 + 4*(program.getAddress(i) - min), program.getValue(i));
+			}
+
+		}
+		else {
+
+			out.position(dataOffset);
+			for (int i = 0; i < pairs; i++) {
+				out.putInt(program.getAddress(i)).putInt(program.getValue(i));
+			}
+
+		}
+
+		entry(out, 0, CODE, codeOffset, codeLength);
+		if (pairs > 0) {
+			entry(out, 1, dataType, dataOffset, dataLength);
+		}
+		out.putInt(12, crc(out, HEADER_BYTES, sections*ENTRY_BYTES));
+		return out.array();
+
+	}
+
+	private static void entry(ByteBuffer out, int index, int type, int offset, int length) {
+
+		int at = HEADER_BYTES + index*ENTRY_BYTES;
+		out.putInt(at, type).putInt(at + 4, offset).putInt(at + 8, length)
+				.putInt(at + 12, crc(out, offset, length));
+
+	}
+
+	private static int crc(ByteBuffer bytes, int offset, int length) {
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.duplicate().limit(offset + length).position(offset));
+		return (int)crc.getValue();
+
+	}
+
+	/**
+	 * Writes slot over code slot index of image, which encode gave for
+	 * version, so that it is what encoding the program with that slot
+	 * gives. A version 2 section's checksum, and the header's, are
+	 * computed again, which reads the section.
+	 * @return the start and end of each run of bytes changed
+	 */
+	static int[] patchSlot(byte[] image, int version, int index, long slot) {
+
+		ByteBuffer out = ByteBuffer.wrap(image);
+		if (version == VERSION_1) {
+
+			out.putInt(8*index, Memory.opcode(slot)).putInt(8*index + 4, Memory.arg(slot));
+			return new int[] {8*index, 8*index + 8};
+
+		}
+		int codeOffset = out.getInt(HEADER_BYTES + 4);
+		int arg = codeOffset + 4 + 4*index;
+		int opcode = codeOffset + 4 + 4*out.getInt(codeOffset) + index;
+		out.putInt(arg, Memory.arg(slot));
+		out.put(opcode, Memory.opcode(slot));
+		return checksum(out, 0, arg, arg + 4, opcode, opcode + 1);
+
+	}
+
+	/**
+	 * Writes the data pair index of a program of count instructions over
+	 * image, as patchSlot does a slot. The layout of version 2 data can
+	 * depend on every address, so there only a new value for the same
+	 * address in a sparse section is written.
+	 * @return the start and end of each run of bytes changed, or null if
+	 * the file has to be encoded again
+	 */
+	static int[] patchPair(byte[] image, int version, int count, int index, int address, int value) {
+
+		ByteBuffer out = ByteBuffer.wrap(image);
+		if (version == VERSION_1) {
+
+			int at = 8*count + 4 + 8*index;
+			out.putInt(at, address).putInt(at + 4, value);
+			return new int[] {at, at + 8};
+
+		}
+		int entry = HEADER_BYTES + ENTRY_BYTES;
+		int at = out.getInt(entry + 4) + 8*index;
+		if (out.getInt(entry) != SPARSE_DATA || out.getInt(at) != address) {
+			return null;
+		}
+		out.putInt(at + 4, value);
+		return checksum(out, 1, at + 4, at + 8);
+
+	}
+
+	// the checksums of section index and of the header after the runs changed
+	private static int[] checksum(ByteBuffer out, int index, int... runs) {
+
+		int at = HEADER_BYTES + index*ENTRY_BYTES;
+		out.putInt(at + 12, crc(out, out.getInt(at + 4), out.getInt(at + 8)));
+		out.putInt(12, crc(out, HEADER_BYTES, out.getInt(8)*ENTRY_BYTES));
+		int[] all = Arrays.copyOf(runs, runs.length + 4);
+		all[runs.length] = 12;
+		all[runs.length + 1] = 16;
+		all[runs.length + 2] = at + 12;
+		all[runs.length + 3] = at + 16;
+		return all;
+
+	}
+
+	/**
+	 * Decodes a version 2 file, checking every section first.
+	 * @throws PexeFormatException if the file is cut short, of another
+	 * version, or a section does not match its CRC
+	 */
+	static Program decode(ByteBuffer bytes) {
+
+		int size = bytes.limit();
+		if (size < HEADER_BYTES) {
+			throw new PexeFormatException("Pexe header is cut short");
+		}
+		if (bytes.getInt(4) != VERSION) {
+			throw new PexeFormatException("Unsupported pexe version " + bytes.getInt(4));
+		}
+
+		int sections = bytes.getInt(8);
+		if (sections < 0 || HEADER_BYTES + (long)sections*ENTRY_BYTES > size) {
+			throw new PexeFormatException("Pexe section table is cut short");
+		}
+		if (crc(bytes, HEADER_BYTES, sections*ENTRY_BYTES) != bytes.getInt(12)) {
+			throw new PexeFormatException("Pexe section table fails its CRC");
+		}
+
+		int codeOffset = -1;
+		int dataType = 0;
+		int dataOffset = 0;
+		int dataLength = 0;
+		for (int i = 0; i < sections; i++) {
+
+			int at = HEADER_BYTES + i*ENTRY_BYTES;
+			int type = bytes.getInt(at);
+			int offset = bytes.getInt(at + 4);
+			int length = bytes.getInt(at + 8);
+			if (offset < HEADER_BYTES + sections*ENTRY_BYTES || length < 0 || (long)offset + length > size) {
+				throw new PexeFormatException("Pexe section " + i + " is outside the file");
+			}
+			if (crc(bytes, offset, length) != bytes.getInt(at + 12)) {
+				throw new PexeFormatException("Pexe section " + i + " fails its CRC");
+			}
+
+			if (type == CODE) {
+				if (length < 4 || length != 4 + 5L*bytes.getInt(offset)) {
+					throw new PexeFormatException("Pexe code section has the wrong length");
+				}
+				codeOffset = offset;
+			}
+			else if (type == DENSE_DATA || type == SPARSE_DATA) {
+				dataType = type;
+				dataOffset = offset;
+				dataLength = length;
+			}
+
+		}
+
+		long[] code = new long[0];
+		if (codeOffset >= 0) {
+
+			code = new long[bytes.getInt(codeOffset)];
+			int opcodes = codeOffset + 4 + 4*code.length;
+			for (int i = 0; i < code.length; i++) {
+				code[i] = Memory.pack(bytes.get(opcodes + i), bytes.getInt(codeOffset + 4 + 4*i));
+			}
+
+		}
+
+		int[] addresses = new int[0];
+		int[] values = new int[0];
+		if (dataType == DENSE_DATA && dataLength >= 4) {
+
+			int address = bytes.getInt(dataOffset);
+			values = new int[dataLength/4 - 1];
+			addresses = new int[values.length];
+			for (int i = 0; i < values.length; i++) {
+				addresses[i] = address + i;
+				values[i] = bytes.getInt(dataOffset + 4 + 4*i);
+			}
+
+		}
+		else if (dataType == SPARSE_DATA) {
+
+			addresses = new int[dataLength/8];
+			values = new int[addresses.length];
+			for (int i = 0; i < addresses.length; i++) {
+				addresses[i] = bytes.getInt(dataOffset + 8*i);
+				values[i] = bytes.getInt(dataOffset + 8*i + 4);
+			}
+
+		}
+
+		return new Program(code, addresses, values);
+
+	}
+
+}
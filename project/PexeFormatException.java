@@ -0,0 +1,11 @@
+package project;
+
+public class PexeFormatException extends RuntimeException {
+
+	public PexeFormatException(String msg) {
+
+		super(msg);
+
+	}
+
+}
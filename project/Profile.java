@@ -0,0 +1,202 @@
+package project;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The execution counts a Machine keeps while profiling is on: one per
+ * PC, one per opcode and addressing mode, and the taken and not taken
+ * counts of every JMPZ. They are plain long arrays bumped once per
+ * instruction, see Machine.setProfiling. A profile can be written as a
+ * flat hotspot report, a table of the opcodes and modes, or collapsed
+ * stacks for flame graph tools.
+ */
+public class Profile {
+
+	// the columns of writeHotspots and writeOpcodes
+	public static final String HOTSPOT_HEADER = "pc\tcount\tpercent\tinstruction\ttaken\tnot taken";
+	public static final String OPCODE_HEADER = "mnemonic\tmode\tcount\tpercent";
+
+	// the mode names the assembler uses, by flags/2
+	private static final String[] MODES = {"direct", "immediate", "indirect", "special jump"};
+
+	private Memory memory;
+	private long[] counts;
+	// by decoded opcode*4 + flags/2
+	private long[] opcodes = new long[32*4];
+	private long[] taken;
+	private long[] notTaken;
+	private long total;
+
+	Profile(Memory memory) {
+
+		this.memory = memory;
+		counts = new long[memory.getCodeSize()];
+		taken = new long[counts.length];
+		notTaken = new long[counts.length];
+
+	}
+
+	/**
+	 * Counts the instruction in slot run at pc, with accum the accumulator
+	 * before it ran.
+	 */
+	void count(int pc, long slot, int accum) {
+
+		int decoded = Memory.decoded(slot);
+		int op = Instruction.decodedOp(decoded);
+		counts[pc]++;
+		opcodes[op*4 + Instruction.decodedFlags(decoded)/2]++;
+		if (op == Instruction.JMPZ) {
+			if (accum == 0) taken[pc]++;
+			else notTaken[pc]++;
+		}
+		total++;
+
+	}
+
+	public void clear() {
+
+		Arrays.fill(counts, 0);
+		Arrays.fill(opcodes, 0);
+		Arrays.fill(taken, 0);
+		Arrays.fill(notTaken, 0);
+		total = 0;
+
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public long getCount(int pc) {
+		return counts[pc];
+	}
+
+	/**
+	 * @param flags 0, 2, 4 or 6, as in the opcode
+	 */
+	public long getCount(String mnemonic, int flags) {
+		return opcodes[Instruction.OPCODES.get(mnemonic)*4 + flags/2];
+	}
+
+	public long getTaken(int pc) {
+		return taken[pc];
+	}
+
+	public long getNotTaken(int pc) {
+		return notTaken[pc];
+	}
+
+	private String percent(long count) {
+		// a point whatever the default locale, as the reports are tab separated for tools
+		return String.format(Locale.ROOT, "%.2f", total == 0 ? 0.0 : 100.0 * count / total);
+	}
+
+	// the PCs that ran, most executed first
+	private List<Integer> hottest() {
+
+		List<Integer> pcs = new ArrayList<>();
+		for (int pc = 0; pc < counts.length; pc++) {
+			if (counts[pc] > 0) pcs.add(pc);
+		}
+		pcs.sort((a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : Integer.compare(a, b));
+		return pcs;
+
+	}
+
+	/**
+	 * Writes the tab separated hotspot report, one line for each of the
+	 * most executed PCs with the instruction there. The taken columns are
+	 * empty except for a JMPZ.
+	 * @param limit the most lines, 0 or less for every PC that ran
+	 */
+	public void writeHotspots(PrintStream out, int limit) {
+
+		out.println(HOTSPOT_HEADER);
+		List<Integer> pcs = hottest();
+		if (limit > 0 && pcs.size() > limit) {
+			pcs = pcs.subList(0, limit);
+		}
+		for (int pc : pcs) {
+
+			Instruction instr = memory.getCode(pc);
+			boolean branch = Instruction.decodedOp(Memory.decoded(memory.getPackedCode()[pc])) == Instruction.JMPZ;
+			out.println(pc + "\t" + counts[pc] + "\t" + percent(counts[pc]) + "\t" + instr.getText() + "\t"
+					+ (branch ? taken[pc] + "\t" + notTaken[pc] : "\t"));
+
+		}
+
+	}
+
+	/**
+	 * Writes the tab separated count of every opcode and addressing mode
+	 * that ran, most executed first.
+	 */
+	public void writeOpcodes(PrintStream out) {
+
+		out.println(OPCODE_HEADER);
+		List<Integer> keys = new ArrayList<>();
+		for (int key = 0; key < opcodes.length; key++) {
+			if (opcodes[key] > 0) keys.add(key);
+		}
+		keys.sort((a, b) -> opcodes[a] != opcodes[b] ? Long.compare(opcodes[b], opcodes[a]) : Integer.compare(a, b));
+		for (int key : keys) {
+
+			String mnemonic = Instruction.MNEMONICS.getOrDefault(key/4, "?" + key/4);
+			String mode = Instruction.NO_ARG_MNEMONICS.contains(mnemonic) && key%4 == 0 ? "none" : MODES[key%4];
+			out.println(mnemonic + "\t" + mode + "\t" + opcodes[key] + "\t" + percent(opcodes[key]));
+
+		}
+
+	}
+
+	/**
+	 * Writes the counts as collapsed stacks, root;block;instruction count,
+	 * the input of flamegraph.pl and speedscope. A block is a basic block,
+	 * named by the PC it starts at. Blocks start at 0, after every jump
+	 * and HALT and at the targets of direct and immediate jumps. The
+	 * target of an indirect jump is only known when it runs, so it may be
+	 * inside a block.
+	 * @param root the name of the bottom frame, like the program's name
+	 */
+	public void writeCollapsed(PrintStream out, String root) {
+
+		long[] code = memory.getPackedCode();
+		int size = memory.getProgramSize();
+		boolean[] leaders = new boolean[size + 1];
+		leaders[0] = true;
+		for (int pc = 0; pc < size; pc++) {
+
+			int decoded = Memory.decoded(code[pc]);
+			int op = Instruction.decodedOp(decoded);
+			if (op != Instruction.JUMP && op != Instruction.JMPZ && op != Instruction.HALT) {
+				continue;
+			}
+			leaders[pc + 1] = true;
+			int flags = Instruction.decodedFlags(decoded);
+			int target = flags == 0 ? pc + Memory.arg(code[pc]) : flags == 2 ? Memory.arg(code[pc]) : -1;
+			if (op != Instruction.HALT && target >= 0 && target < size) {
+				leaders[target] = true;
+			}
+
+		}
+
+		int block = 0;
+		for (int pc = 0; pc < size; pc++) {
+
+			if (leaders[pc]) {
+				block = pc;
+			}
+			if (counts[pc] > 0) {
+				out.println(root + ";block " + block + ";" + pc + " " + memory.getCode(pc).getText() + " " + counts[pc]);
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,109 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+public class ProfileTester {
+
+	// counts data[0] down from 3 to 0
+	private static final String COUNTDOWN = "LOD 0\nJMPZ M5\nSUB M1\nSTO 0\nJUMP M0\nHALT\nDATA\n0 3\n";
+
+	private Machine machine(boolean profiling) {
+		Machine m = new Machine(() -> {});
+		m.setProfiling(profiling);
+		new FullAssembler().assemble(COUNTDOWN, new StringBuilder()).load(m);
+		return m;
+	}
+
+	private String text(java.util.function.Consumer<PrintStream> write) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		write.accept(new PrintStream(bytes, true));
+		return bytes.toString().replace("\r\n", "\n");
+	}
+
+	@Test
+	// every instruction is counted at its PC, and the run is the one without profiling
+	public void testCounts() {
+		Machine plain = machine(false);
+		RunResult expected = plain.runUntilHalt();
+		Machine m = machine(true);
+		RunResult result = m.runUntilHalt();
+		Profile profile = m.getProfile();
+		assertAll (
+				() -> assertNull(plain.getProfile()),
+				() -> assertEquals(expected.getSteps(), result.getSteps()),
+				() -> assertEquals(RunResult.HaltReason.HALTED, result.getReason()),
+				() -> assertEquals(18, profile.getTotal()),
+				() -> assertEquals(4, profile.getCount(0)),
+				() -> assertEquals(3, profile.getCount(4)),
+				() -> assertEquals(1, profile.getCount(5)),
+				() -> assertEquals(1, profile.getTaken(1)),
+				() -> assertEquals(3, profile.getNotTaken(1)),
+				() -> assertEquals(4, profile.getCount("LOD", 0)),
+				() -> assertEquals(3, profile.getCount("SUB", 2))
+				);
+	}
+
+	@Test
+	// step() counts too, and an instruction that faults is not counted
+	public void testStepAndFault() {
+		Machine m = machine(true);
+		m.step();
+		m.step();
+		assertEquals(2, m.getProfile().getTotal());
+		m.setPC(6);
+		assertEquals(Status.CODE_ACCESS, m.tryRun(10));
+		assertEquals(2, m.getProfile().getTotal());
+		m.getProfile().clear();
+		assertEquals(0, m.getProfile().getCount(0));
+	}
+
+	@Test
+	// the reports name the instructions, the modes and the basic blocks
+	public void testReports() {
+		Machine m = machine(true);
+		m.runUntilHalt();
+		Profile profile = m.getProfile();
+		assertAll (
+				() -> assertEquals(Profile.HOTSPOT_HEADER + "\n"
+						+ "0\t4\t22.22\tLOD  0\t\t\n"
+						+ "1\t4\t22.22\tJMPZ  M5\t1\t3\n", text(out -> profile.writeHotspots(out, 2))),
+				() -> assertEquals(Profile.OPCODE_HEADER + "\n"
+						+ "JMPZ\timmediate\t4\t22.22\n"
+						+ "LOD\tdirect\t4\t22.22\n"
+						+ "JUMP\timmediate\t3\t16.67\n"
+						+ "STO\tdirect\t3\t16.67\n"
+						+ "SUB\timmediate\t3\t16.67\n"
+						+ "HALT\tnone\t1\t5.56\n", text(profile::writeOpcodes)),
+				() -> assertEquals("countdown;block 0;0 LOD  0 4\n"
+						+ "countdown;block 0;1 JMPZ  M5 4\n"
+						+ "countdown;block 2;2 SUB  M1 3\n"
+						+ "countdown;block 2;3 STO  0 3\n"
+						+ "countdown;block 2;4 JUMP  M0 3\n"
+						+ "countdown;block 5;5 HALT  0 1\n", text(out -> profile.writeCollapsed(out, "countdown")))
+				);
+	}
+
+	@Test
+	// the percentages do not take a decimal comma from the default locale
+	public void testLocale() {
+		Machine m = machine(true);
+		m.runUntilHalt();
+		Locale locale = Locale.getDefault();
+		try {
+			Locale.setDefault(Locale.GERMANY);
+			assertEquals(Profile.HOTSPOT_HEADER + "\n"
+					+ "0\t4\t22.22\tLOD  0\t\t\n", text(out -> m.getProfile().writeHotspots(out, 1)));
+		}
+		finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package project;
+
+import java.util.List;
+
+import project.Assembler.DataPair;
+
+/**
+ * The decoded image of a pexe file: its code as packed slots and its
+ * initial data as address, value pairs in file order. A Program is never
+ * changed once built, so one Program can be loaded into any number of
+ * machines, which is what ProgramCache relies on.
+ */
+public final class Program {
+
+	private final long[] code;
+	private final int[] addresses;
+	private final int[] values;
+
+	Program(long[] code, int[] addresses, int[] values) {
+
+		this.code = code;
+		this.addresses = addresses;
+		this.values = values;
+
+	}
+
+	static Program of(List<Instruction> code, List<DataPair> data) {
+
+		long[] slots = new long[code.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = Memory.pack(code.get(i).opcode, code.get(i).arg);
+		}
+
+		int[] addresses = new int[data.size()];
+		int[] values = new int[data.size()];
+		for (int i = 0; i < addresses.length; i++) {
+			addresses[i] = data.get(i).address;
+			values[i] = data.get(i).value;
+		}
+
+		return new Program(slots, addresses, values);
+
+	}
+
+	public int getProgramSize() {
+		return code.length;
+	}
+
+	public int getDataCount() {
+		return addresses.length;
+	}
+
+	long getSlot(int index) {
+		return code[index];
+	}
+
+	int getAddress(int index) {
+		return addresses[index];
+	}
+
+	int getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @return roughly the heap taken by the image, for ProgramCache's bound
+	 */
+	long getBytes() {
+		return 64 + 8L*code.length + 8L*addresses.length;
+	}
+
+	/**
+	 * Copies the code into machine's code memory and sets the data.
+	 * @return the number of instructions loaded
+	 */
+	public int load(Machine machine) {
+
+		machine.addCode(code);
+		for (int i = 0; i < addresses.length; i++) {
+			machine.setData(addresses[i], values[i]);
+		}
+		return code.length;
+
+	}
+
+}
@@ -0,0 +1,246 @@
+package project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps decoded Programs so that loading the same pexe file again copies
+ * its image into the machine instead of reading and parsing the file.
+ * Programs are kept by the SHA-256 of the file's bytes, so copies of a
+ * file under other names share one image. Each path also remembers the
+ * modification time and size it had when it was read, and while those
+ * are unchanged the file is not read at all. The images are evicted
+ * least recently used first once their total size passes the bound.
+ * Safe to use from several threads.
+ */
+public class ProgramCache {
+
+	public static final long DEFAULT_BYTES = 64L << 20;
+
+	// a file as last read, and the hash of its contents then
+	private static class Stamp {
+
+		final FileTime modified;
+		final long size;
+		final ByteBuffer hash;
+
+		Stamp(FileTime modified, long size, ByteBuffer hash) {
+
+			this.modified = modified;
+			this.size = size;
+			this.hash = hash;
+
+		}
+
+	}
+
+	private final long maxBytes;
+	private final LinkedHashMap<ByteBuffer, Program> programs = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Stamp> stamps = new HashMap<>();
+	// the paths stamped with each hash, so an eviction finds its stamps
+	private final Map<ByteBuffer, Set<String>> paths = new HashMap<>();
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	public ProgramCache(long maxBytes) {
+
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Cache size " + maxBytes + " is negative");
+		}
+		this.maxBytes = maxBytes;
+
+	}
+
+	/**
+	 * Loads file into machine, like Loader.load, from the cache if it has
+	 * the file's current contents.
+	 */
+	public String load(Machine machine, File file) throws Exception {
+
+		if (machine == null || file == null) {
+
+			return null;
+
+		}
+
+		Program program = get(file);
+		if (program == null) {
+
+			return("File " + file.getName() + " Not Found");
+
+		}
+
+		return "" + program.load(machine);
+
+	}
+
+	/**
+	 * @return the Program in file, or null if it is missing or cannot be opened
+	 */
+	public Program get(File file) throws IOException {
+
+		String path = file.getAbsolutePath();
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) {
+			attributes = null;
+		}
+
+		if (attributes != null) {
+
+			synchronized (this) {
+
+				Stamp stamp = stamps.get(path);
+				Program program = stamp == null || !stamp.modified.equals(attributes.lastModifiedTime())
+						|| stamp.size != attributes.size()
+						? null : programs.get(stamp.hash);
+				if (program != null) {
+					hits++;
+					return program;
+				}
+
+			}
+
+		}
+
+		ByteBuffer contents = Loader.read(file);
+		if (contents == null) {
+			return null;
+		}
+		ByteBuffer hash = hash(contents);
+
+		synchronized (this) {
+
+			Program program = programs.get(hash);
+			if (program != null) {
+				hits++;
+				stamp(path, attributes, hash);
+				return program;
+			}
+
+		}
+
+		// a file that does not decode leaves no stamp behind
+		Program program = Loader.decode(contents);
+		synchronized (this) {
+
+			misses++;
+			if (programs.put(hash, program) == null) {
+				bytes += program.getBytes();
+			}
+			stamp(path, attributes, hash);
+			evict();
+
+		}
+		return program;
+
+	}
+
+	private void stamp(String path, BasicFileAttributes attributes, ByteBuffer hash) {
+
+		if (attributes != null) {
+			unstamp(path);
+			stamps.put(path, new Stamp(attributes.lastModifiedTime(), attributes.size(), hash));
+			paths.computeIfAbsent(hash, h -> new HashSet<>()).add(path);
+		}
+
+	}
+
+	private void unstamp(String path) {
+
+		Stamp stamp = stamps.remove(path);
+		if (stamp != null) {
+			Set<String> stamped = paths.get(stamp.hash);
+			stamped.remove(path);
+			if (stamped.isEmpty()) {
+				paths.remove(stamp.hash);
+			}
+		}
+
+	}
+
+	private static ByteBuffer hash(ByteBuffer contents) {
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(contents.duplicate());
+			return ByteBuffer.wrap(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+
+	}
+
+	private void evict() {
+
+		Iterator<Map.Entry<ByteBuffer, Program>> eldest = programs.entrySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+
+			Map.Entry<ByteBuffer, Program> entry = eldest.next();
+			bytes -= entry.getValue().getBytes();
+			eldest.remove();
+			Set<String> stamped = paths.remove(entry.getKey());
+			if (stamped != null) {
+				stamps.keySet().removeAll(stamped);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Drops what is remembered of file, so the next get reads it again.
+	 * For a writer that knows it changed file, as a patch in place can
+	 * keep its size and, within one tick of the clock, its time.
+	 */
+	public synchronized void forget(File file) {
+
+		unstamp(file.getAbsolutePath());
+
+	}
+
+	public synchronized void clear() {
+
+		programs.clear();
+		stamps.clear();
+		paths.clear();
+		bytes = 0;
+
+	}
+
+	public synchronized int size() {
+		return programs.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized int getStamps() {
+		return stamps.size();
+	}
+
+}
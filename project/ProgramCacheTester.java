@@ -0,0 +1,146 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProgramCacheTester {
+
+	@TempDir
+	File dir;
+
+	// Assembled opcodes with parity: LOD M = 0b00101011, HALT = 0b00010001
+	private File pexe(String name, int count, int value) throws IOException {
+		List<Instruction> code = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			code.add(new Instruction((byte)0b00101011, i)); // LOD Mi
+		}
+		code.add(new Instruction((byte)0b00010001, 0)); // HALT
+		List<Assembler.DataPair> data = new ArrayList<>();
+		data.add(new Assembler.DataPair(0, value));
+		File file = new File(dir, name);
+		Pexe.write(file, code, data);
+		return file;
+	}
+
+	@Test
+	// the second load copies the cached image, which the first machine cannot change
+	public void testHit() throws Exception {
+		File file = pexe("one.pexe", 3, 7);
+		ProgramCache cache = new ProgramCache(ProgramCache.DEFAULT_BYTES);
+		Machine first = new Machine(() -> {});
+		assertEquals("4", cache.load(first, file));
+		first.setCode(0, new Instruction((byte)0b00010001, 0));
+		first.setData(0, 8);
+		Machine second = new Machine(() -> {});
+		assertEquals("4", cache.load(second, file));
+		assertAll (
+				() -> assertEquals(1, cache.getMisses()),
+				() -> assertEquals(1, cache.getHits()),
+				() -> assertEquals("LOD M0", second.getCode(0).getText().replaceAll("\\s+", " ")),
+				() -> assertEquals(7, second.getData(0))
+				);
+	}
+
+	@Test
+	// a file that changes is read again, and a copy under another name shares its image
+	public void testChangedAndCopied() throws Exception {
+		File file = pexe("one.pexe", 3, 7);
+		ProgramCache cache = new ProgramCache(ProgramCache.DEFAULT_BYTES);
+		Program before = cache.get(file);
+		pexe("one.pexe", 3, 9);
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+		Machine m = new Machine(() -> {});
+		cache.load(m, file);
+		assertEquals(9, m.getData(0));
+		assertEquals(2, cache.getMisses());
+
+		File copy = new File(dir, "copy.pexe");
+		Files.copy(file.toPath(), copy.toPath());
+		Program after = cache.get(file);
+		assertAll (
+				() -> assertSame(after, cache.get(copy)),
+				() -> assertEquals(2, cache.getMisses()),
+				() -> assertEquals(before.getProgramSize(), after.getProgramSize())
+				);
+	}
+
+	@Test
+	// a file rewritten with the same size and time is only read again once forgotten
+	public void testForget() throws Exception {
+		File file = pexe("one.pexe", 3, 7);
+		FileTime time = Files.getLastModifiedTime(file.toPath());
+		ProgramCache cache = new ProgramCache(ProgramCache.DEFAULT_BYTES);
+		cache.get(file);
+		pexe("one.pexe", 3, 9);
+		Files.setLastModifiedTime(file.toPath(), time);
+		Machine m = new Machine(() -> {});
+		cache.load(m, file);
+		assertEquals(7, m.getData(0));
+		cache.forget(file);
+		cache.load(m, file);
+		assertEquals(9, m.getData(0));
+	}
+
+	@Test
+	// the least recently used programs go once the images pass the bound
+	public void testEviction() throws Exception {
+		File[] files = new File[4];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = pexe(i + ".pexe", 1000, i);
+		}
+		long size = new ProgramCache(ProgramCache.DEFAULT_BYTES).get(files[0]).getBytes();
+		ProgramCache cache = new ProgramCache(3*size);
+		cache.get(files[0]);
+		cache.get(files[1]);
+		cache.get(files[2]);
+		cache.get(files[0]);
+		cache.get(files[3]);
+		assertAll (
+				() -> assertEquals(3, cache.size()),
+				() -> assertEquals(3*size, cache.getBytes()),
+				() -> assertEquals(4, cache.getMisses())
+				);
+		cache.get(files[0]);
+		cache.get(files[1]);
+		assertAll (
+				() -> assertEquals(5, cache.getMisses()),
+				// an evicted program takes the stamps of its paths with it
+				() -> assertEquals(3, cache.getStamps())
+				);
+	}
+
+	@Test
+	// a file that fails to decode is not remembered
+	public void testBadFile() throws Exception {
+		ProgramCache cache = new ProgramCache(ProgramCache.DEFAULT_BYTES);
+		for (int i = 0; i < 3; i++) {
+			File bad = new File(dir, i + ".pexe");
+			Files.write(bad.toPath(), new byte[] {'P', 'E', 'X', 'E', 0, 0, 0, 99});
+			assertThrows(PexeFormatException.class, () -> cache.get(bad));
+		}
+		assertAll (
+				() -> assertEquals(0, cache.getStamps()),
+				() -> assertEquals(0, cache.size())
+				);
+	}
+
+	@Test
+	// a missing file is reported like Loader does
+	public void testMissing() throws Exception {
+		ProgramCache cache = new ProgramCache(0);
+		assertEquals("File missing.pexe Not Found", cache.load(new Machine(() -> {}), new File(dir, "missing.pexe")));
+		assertEquals(0, cache.size());
+	}
+
+}
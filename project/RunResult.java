@@ -0,0 +1,55 @@
+package project;
+
+/**
+ * The outcome of a batch run of a Machine: why the run stopped,
+ * how many instructions were executed and the PC at that point.
+ */
+public class RunResult {
+
+	public enum HaltReason {
+		HALTED, STEP_LIMIT, FAULT
+	}
+
+	private HaltReason reason;
+	private long steps;
+	private int pc;
+	private RuntimeException fault;
+
+	public RunResult(HaltReason reason, long steps, int pc, RuntimeException fault) {
+
+		this.reason = reason;
+		this.steps = steps;
+		this.pc = pc;
+		this.fault = fault;
+
+	}
+
+	public HaltReason getReason() {
+		return reason;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * For a FAULT this is the PC of the instruction that faulted,
+	 * otherwise the PC the machine stopped at.
+	 */
+	public int getPC() {
+		return pc;
+	}
+
+	/**
+	 * @return the exception that stopped the run, or null if the
+	 * reason is not FAULT
+	 */
+	public RuntimeException getFault() {
+		return fault;
+	}
+
+	public String toString() {
+		return "RunResult (" + reason + ", steps " + steps + ", pc " + pc + ")";
+	}
+
+}
@@ -0,0 +1,226 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.util.Arrays;
+
+public class RunTester {
+
+	Machine machine;
+	Machine stepped;
+	boolean halted;
+
+	// Assembled opcodes with parity: LOD M = 0b00101011, STO = 0b00110000,
+	// SUB M = 0b01011010, JMPZ M = 0b00100010, JUMP M = 0b00011011,
+	// HALT = 0b00010001, ADD = 0b01010000
+	private void countdown(Machine m) {
+		m.addCode(new Instruction((byte)0b00101011, 5));  // 0: LOD M5
+		m.addCode(new Instruction((byte)0b00110000, 0));  // 1: STO 0
+		m.addCode(new Instruction((byte)0b01010000, 1));  // 2: ADD 1
+		m.addCode(new Instruction((byte)0b00110000, 1));  // 3: STO 1
+		m.addCode(new Instruction((byte)0b00101000, 0));  // 4: LOD 0
+		m.addCode(new Instruction((byte)0b01011010, 1));  // 5: SUB M1
+		m.addCode(new Instruction((byte)0b00110000, 0));  // 6: STO 0
+		m.addCode(new Instruction((byte)0b00100010, 9));  // 7: JMPZ M9
+		m.addCode(new Instruction((byte)0b00011011, 2));  // 8: JUMP M2
+		m.addCode(new Instruction((byte)0b00010001, 0));  // 9: HALT
+	}
+
+	@BeforeEach
+	public void setup() {
+		halted = false;
+		machine = new Machine(() -> halted = true);
+		stepped = new Machine(() -> halted = true);
+		countdown(machine);
+		countdown(stepped);
+	}
+
+	@Test
+	// run leaves the machine in the same state as stepping to the HALT
+	public void testRunMatchesStep() {
+		long steps = 0;
+		while (!halted) {
+			stepped.step();
+			steps++;
+		}
+		halted = false;
+		RunResult result = machine.runUntilHalt();
+		long count = steps;
+		assertAll (
+				() -> assertEquals(RunResult.HaltReason.HALTED, result.getReason()),
+				() -> assertEquals(count, result.getSteps(), "Steps counted"),
+				() -> assertEquals(stepped.getPC(), machine.getPC(), "Program counter"),
+				() -> assertEquals(stepped.getAccum(), machine.getAccum(), "Accumulator"),
+				() -> assertArrayEquals(stepped.getData(), machine.getData(), "Data"),
+				() -> assertEquals(stepped.getChangedDataIndex(), machine.getChangedDataIndex()),
+				() -> assertNull(result.getFault()),
+				() -> assertTrue(!halted, "HaltCallback not called by run")
+				);
+	}
+
+	@Test
+	// run stops after maxSteps and can be resumed
+	public void testStepLimit() {
+		RunResult result = machine.run(4);
+		assertAll (
+				() -> assertEquals(RunResult.HaltReason.STEP_LIMIT, result.getReason()),
+				() -> assertEquals(4, result.getSteps()),
+				() -> assertEquals(4, machine.getPC()),
+				() -> assertEquals(5, machine.getAccum())
+				);
+		RunResult rest = machine.runUntilHalt();
+		assertEquals(RunResult.HaltReason.HALTED, rest.getReason());
+		assertEquals(0, machine.getData(0));
+	}
+
+	@Test
+	// a fault is returned with the PC of the faulting instruction
+	public void testFault() {
+		machine.setCode(3, new Instruction((byte)0b01101001, 0)); // DIV 0, which holds 0
+		machine.setData(0, 0);
+		machine.setPC(3);
+		RunResult result = machine.run(100);
+		assertAll (
+				() -> assertEquals(RunResult.HaltReason.FAULT, result.getReason()),
+				() -> assertEquals(0, result.getSteps()),
+				() -> assertEquals(3, result.getPC()),
+				() -> assertEquals(3, machine.getPC()),
+				() -> assertTrue(result.getFault() instanceof DivideByZeroException)
+				);
+	}
+
+	@Test
+	// compiled blocks give the same result as the interpreter
+	public void testCompiledMatchesInterpreted() {
+		machine.setCompileThreshold(1);
+		RunResult compiled = machine.runUntilHalt();
+		RunResult interpreted = stepped.runUntilHalt();
+		assertAll (
+				() -> assertEquals(interpreted.getSteps(), compiled.getSteps(), "Steps counted"),
+				() -> assertEquals(stepped.getPC(), machine.getPC(), "Program counter"),
+				() -> assertEquals(stepped.getAccum(), machine.getAccum(), "Accumulator"),
+				() -> assertArrayEquals(stepped.getData(), machine.getData(), "Data"),
+				() -> assertEquals(stepped.getChangedDataIndex(), machine.getChangedDataIndex())
+				);
+	}
+
+	@Test
+	// setCode after a block was compiled is seen by the next run
+	public void testCompiledBlockInvalidated() {
+		machine.setCompileThreshold(1);
+		machine.runUntilHalt();
+		machine.setCode(2, new Instruction((byte)0b01010011, 100)); // ADD M100
+		machine.setPC(0);
+		machine.runUntilHalt();
+		assertEquals(0, machine.getData(0));
+		assertEquals(101, machine.getData(1)); // the last pass adds 100 to 1
+	}
+
+	@Test
+	// a fault inside a superinstruction is reported at the instruction that faulted
+	public void testFusedFault() {
+		machine.setCode(5, new Instruction((byte)0b01011100, 2)); // SUB N2, LOD 0 and STO 0 around it
+		machine.setData(2, 1000);
+		machine.setPC(4);
+		machine.setData(0, 7);
+		RunResult result = machine.run(10);
+		assertAll (
+				() -> assertEquals(RunResult.HaltReason.FAULT, result.getReason()),
+				() -> assertEquals(1, result.getSteps()),
+				() -> assertEquals(5, machine.getPC()),
+				() -> assertEquals(7, machine.getAccum()),
+				() -> assertTrue(result.getFault() instanceof ArrayIndexOutOfBoundsException)
+				);
+	}
+
+	@Test
+	// tryRun reports a fault through its status and the fault register
+	public void testTryRunFault() {
+		machine.setCode(5, new Instruction((byte)0b01011100, 2)); // SUB N2
+		machine.setData(2, 1000);
+		int status = machine.tryRun(100);
+		assertAll (
+				() -> assertEquals(Status.DATA_ACCESS, status),
+				() -> assertEquals(5, machine.getExecuted()),
+				() -> assertEquals(5, machine.getPC()),
+				() -> assertEquals(1000, machine.getFaultDetail()),
+				() -> assertTrue(machine.toException(status) instanceof ArrayIndexOutOfBoundsException)
+				);
+	}
+
+	@Test
+	// an ACTION entry runs its instruction like step() does, faults included
+	public void testActionIsStep() {
+		Instruction load = new Instruction((byte)0b00101000, 1); // LOD 1
+		Instruction store = new Instruction((byte)0b00110000, 1000); // STO 1000
+		machine.setData(1, 42);
+		machine.setPC(3);
+		machine.ACTION.get(load.opcode/8).accept(load);
+		assertEquals(42, machine.getAccum());
+		assertEquals(4, machine.getPC());
+		stepped.setCode(4, store);
+		stepped.setPC(4);
+		Class<?> expected = assertThrows(RuntimeException.class, () -> stepped.step()).getClass();
+		assertEquals(expected, assertThrows(RuntimeException.class,
+				() -> machine.ACTION.get(store.opcode/8).accept(store)).getClass());
+		assertEquals(4, machine.getPC());
+		// the PC is wherever the caller put it, even outside code memory
+		machine.setPC(machine.getCodeSize() + 10);
+		machine.ACTION.get(load.opcode/8).accept(load);
+		assertEquals(machine.getCodeSize() + 11, machine.getPC());
+	}
+
+	@Test
+	// opcode bytes from 0x80 decode past the instruction set and fault, however they run
+	public void testIllegalOpcodes() {
+		for (int opcode : new int[] {0x81, 0x88, 0x90, 0xFF}) {
+			Machine m = new Machine(() -> {});
+			m.addCode(new Instruction((byte)opcode, 5));
+			byte expected = (byte)(((byte)opcode >> 3) & 0x1F);
+			assertAll (
+					() -> assertEquals(Status.ILLEGAL_OPCODE, m.tryStep()),
+					() -> assertEquals(expected, m.getFaultDetail()),
+					() -> assertEquals(Status.ILLEGAL_OPCODE, m.tryRun(5)),
+					() -> assertEquals(0, m.getPC())
+					);
+		}
+	}
+
+	@Test
+	// tryStep returns HALTED at the HALT without calling the HaltCallback
+	public void testTryStepHalt() {
+		int status = Status.RUNNING;
+		int steps = 0;
+		while (status == Status.RUNNING) {
+			status = machine.tryStep();
+			steps++;
+		}
+		assertEquals(Status.HALTED, status);
+		assertEquals(1, machine.runUntilHalt().getSteps()); // the PC is still on the HALT
+		assertEquals(steps, stepped.runUntilHalt().getSteps());
+		assertTrue(!halted, "HaltCallback not called by tryStep");
+	}
+
+	@Test
+	// getChangedData gives the cells written since the frame a view last drew
+	public void testChangedData() {
+		int[] changed = new int[Memory.DATA_SIZE];
+		assertEquals(Memory.DATA_SIZE, machine.getChangedData(-1, 0, Memory.DATA_SIZE, changed));
+		int frame = machine.markFrame();
+		assertEquals(0, machine.getChangedData(frame, 0, Memory.DATA_SIZE, changed));
+		machine.runUntilHalt();
+		int count = machine.getChangedData(frame, 0, Memory.DATA_SIZE, changed);
+		assertArrayEquals(new int[] {0, 1}, Arrays.copyOf(changed, count));
+		assertEquals(1, machine.getChangedData(frame, 1, 10, changed));
+		frame = machine.markFrame();
+		assertEquals(0, machine.getChangedData(frame, 0, Memory.DATA_SIZE, changed));
+	}
+
+}
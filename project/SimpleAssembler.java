@@ -1,10 +1,10 @@
 package project;
 
-import java.io.DataOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
@@ -16,6 +16,18 @@ import java.util.stream.Stream;
 public class SimpleAssembler implements Assembler {
 
 	private boolean readingCode = true;
+	private int pexeVersion = Pexe.VERSION_1;
+	
+	/**
+	 * Sets the pexe version assemble writes: Pexe.VERSION_1, the default, 
+	 * which every Loader reads, or Pexe.VERSION_2.
+	 */
+	public void setPexeVersion(int version) {
+		
+		Pexe.checkVersion(version);
+		pexeVersion = version;
+		
+	}
 	
 	private Instruction makeCode(String[] parts) {
 		
@@ -74,8 +86,34 @@ public class SimpleAssembler implements Assembler {
 	
 	@Override
 	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+		Program program;
+		try (Reader in = Files.newBufferedReader(Paths.get(inputFileName))) {
+			program = assemble(in, error);
+		} catch (IOException e) {
+			error.append("Unable to open the source file\n");
+			return -1;
+		}
+		
+		try {
+			
+			Pexe.write(new File(outputFileName), program, pexeVersion);
+			
+		}
+		catch (IOException e) {
+			
+			e.printStackTrace();
+			
+		}
+		
+		return 0;
+	
+	}
+	
+	@Override
+	public Program assemble(Reader source, StringBuilder error) throws IOException {
+		readingCode = true;
 		Map<Boolean, List<String>> lists = null;
-		try (Stream<String> lines = Files.lines(Paths.get(inputFileName))) {
+		try (Stream<String> lines = new BufferedReader(source).lines()) {
 			lists = lines
 				.filter(line -> line.trim().length() > 0)
 				.map(line -> line.trim())
@@ -84,8 +122,8 @@ public class SimpleAssembler implements Assembler {
 				.collect(Collectors.partitioningBy(line -> readingCode));
 //				System.out.println("true List " + lists.get(true)); // these lines can be uncommented 
 //				System.out.println("false List " + lists.get(false)); // for checking the code
-		} catch (IOException e) {
-			e.printStackTrace();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
 		lists.get(false).remove("DATA"); // some programs will not have DATA but that is not an error
 		
@@ -99,41 +137,7 @@ public class SimpleAssembler implements Assembler {
 				.map(this::makeData) // note how we use an instance method
 				.collect(Collectors.toList());
 		
-		try {
-			
-			DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(outputFileName)));
-			
-			for (Instruction instr : outputCode) {
-				
-				out.writeInt(instr.opcode);
-				out.writeInt(instr.arg);
-				
-			}
-			
-			out.writeInt(-1);
-			
-			for (DataPair pair : outputData) {
-				
-				out.writeInt(pair.address);
-				out.writeInt(pair.value);
-				
-			}
-			
-			out.close();
-			
-		}
-		catch (FileNotFoundException e) {
-			
-			e.printStackTrace();
-			
-		}
-		catch (IOException e) {
-			
-			e.printStackTrace();
-			
-		}
-		
-		return 0;
+		return Program.of(outputCode, outputData);
 	
 	}
 	
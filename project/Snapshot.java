@@ -0,0 +1,60 @@
+package project;
+
+/**
+ * The state of a Machine at one moment: its data, its code, the PC and
+ * the accumulator, see Machine.snapshot. Taking one copies no data. The
+ * pages are shared with the machine, and with every machine the snapshot
+ * is restored into, until one of them writes a page, which then gets its
+ * own copy. The code is shared the same way as a whole. A snapshot never
+ * changes, so it can be restored any number of times.
+ */
+public final class Snapshot {
+
+	final DataStore store;
+	final long[] code;
+	final int programSize;
+	final int dataSize;
+	final int codeSize;
+	final Memory.Backend backend;
+	final int pc;
+	final int accum;
+
+	Snapshot(DataStore store, long[] code, int programSize, int dataSize, int codeSize,
+			Memory.Backend backend, int pc, int accum) {
+
+		this.store = store;
+		this.code = code;
+		this.programSize = programSize;
+		this.dataSize = dataSize;
+		this.codeSize = codeSize;
+		this.backend = backend;
+		this.pc = pc;
+		this.accum = accum;
+
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getAccum() {
+		return accum;
+	}
+
+	public int getProgramSize() {
+		return programSize;
+	}
+
+	public int getDataSize() {
+		return dataSize;
+	}
+
+	public int getCodeSize() {
+		return codeSize;
+	}
+
+	public Memory.Backend getBackend() {
+		return backend;
+	}
+
+}
@@ -0,0 +1,129 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotTester {
+
+	@Test
+	// a restored machine is back where the snapshot was and runs on the same way, flat, paged and off the heap
+	public void testRestore() {
+		for (int dataSize : new int[] {Memory.DATA_SIZE, 1 << 20}) {
+			for (Memory.Backend backend : Memory.Backend.values()) {
+				Machine m = Stores.machine(dataSize, backend);
+				m.run(7);
+				String before = Stores.state(m);
+				Snapshot snapshot = m.snapshot();
+				m.runUntilHalt();
+				String after = Stores.state(m);
+				m.setData(dataSize - 1, 5);
+				m.restore(snapshot);
+				assertEquals(before, Stores.state(m), dataSize + " " + backend);
+				assertEquals(0, m.getData(dataSize - 1));
+				m.runUntilHalt();
+				assertEquals(after, Stores.state(m), dataSize + " " + backend);
+				m.restore(snapshot);
+				assertEquals(before, Stores.state(m), dataSize + " " + backend);
+				m.close();
+			}
+		}
+	}
+
+	@Test
+	// a fork and its parent share nothing they write, and a fork of a compiling machine compiles
+	public void testFork() {
+		Machine parent = Stores.machine(1 << 20, Memory.Backend.HEAP);
+		parent.setCompileThreshold(1);
+		parent.run(7);
+		String before = Stores.state(parent);
+		Machine child = parent.fork();
+		assertEquals(before, Stores.state(child));
+		child.setData(12, 99);
+		parent.setData(500_000, 7);
+		assertAll (
+				() -> assertEquals(0, parent.getData(12)),
+				() -> assertEquals(0, child.getData(500_000)),
+				() -> assertEquals(7, parent.getData(500_000))
+				);
+		parent.runUntilHalt();
+		child.runUntilHalt();
+		child.setData(500_000, 7);
+		assertEquals(Stores.state(parent), Stores.state(child));
+		Machine plain = Stores.machine(1 << 20, Memory.Backend.HEAP);
+		plain.runUntilHalt();
+		assertEquals(Stores.state(plain), Stores.state(child));
+	}
+
+	@Test
+	// code changed after a snapshot is put back, and the snapshot keeps its own
+	public void testCode() {
+		Machine m = Stores.machine(Memory.DATA_SIZE, Memory.Backend.HEAP);
+		Snapshot snapshot = m.snapshot();
+		Instruction first = m.getCode(0);
+		m.setCode(0, new Instruction((byte)0b00010001, 0)); // HALT
+		m.addCode(new Instruction((byte)0b00010001, 0));
+		Machine child = m.fork();
+		m.restore(snapshot);
+		assertAll (
+				() -> assertEquals(first.getText(), m.getCode(0).getText()),
+				() -> assertEquals(snapshot.getProgramSize(), m.getProgramSize()),
+				() -> assertEquals("HALT  0", child.getCode(0).getText()),
+				() -> assertEquals(snapshot.getProgramSize() + 1, child.getProgramSize())
+				);
+		m.setCode(1, new Instruction((byte)0b00010001, 0));
+		assertEquals("HALT  0", child.getCode(0).getText());
+		m.restore(snapshot);
+		assertEquals(first.getText(), m.getCode(0).getText());
+	}
+
+	@Test
+	// pages shared with a snapshot are not pooled when the memory is cleared, so pooled pages cannot change it
+	public void testOffHeapPool() {
+		Machine m = Stores.machine(1 << 20, Memory.Backend.OFF_HEAP);
+		m.setData(600_000, 42);
+		Snapshot snapshot = m.snapshot();
+		int pooled = OffHeapStore.getPooledPages();
+		m.clear();
+		assertEquals(pooled, OffHeapStore.getPooledPages());
+		Machine other = Stores.machine(1 << 20, Memory.Backend.OFF_HEAP);
+		other.setData(600_000, 7);
+		m.restore(snapshot);
+		assertEquals(42, m.getData(600_000));
+		assertEquals(3, m.getData(0));
+		other.close();
+		m.close();
+	}
+
+	@Test
+	// a snapshot only goes into a machine of the same shape
+	public void testMismatch() {
+		Snapshot snapshot = Stores.machine(Memory.DATA_SIZE, Memory.Backend.HEAP).snapshot();
+		assertAll (
+				() -> assertThrows(IllegalArgumentException.class,
+						() -> Stores.machine(1 << 20, Memory.Backend.HEAP).restore(snapshot)),
+				() -> assertThrows(IllegalArgumentException.class,
+						() -> Stores.machine(Memory.DATA_SIZE, Memory.Backend.OFF_HEAP).restore(snapshot))
+				);
+	}
+
+	@Test
+	// a fork of a big memory allocates no pages of its own until it writes one
+	public void testLargeMemory() {
+		Machine m = Stores.machine(1 << 28, Memory.Backend.HEAP);
+		for (int i = 0; i < 1 << 28; i += Memory.PAGE_SIZE * 64) m.setData(i, i);
+		int pages = m.getAllocatedPages();
+		Machine child = m.fork();
+		assertEquals(pages, child.getAllocatedPages());
+		child.setData(Memory.PAGE_SIZE * 64, 1);
+		child.setData(Memory.PAGE_SIZE, 1);
+		assertAll (
+				() -> assertEquals(Memory.PAGE_SIZE * 64, m.getData(Memory.PAGE_SIZE * 64)),
+				() -> assertEquals(1, child.getData(Memory.PAGE_SIZE * 64)),
+				() -> assertEquals(pages, m.getAllocatedPages()),
+				() -> assertEquals(pages + 1, child.getAllocatedPages())
+				);
+	}
+
+}
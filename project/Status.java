@@ -0,0 +1,33 @@
+package project;
+
+/**
+ * Status codes returned by Machine.tryStep() and Machine.tryRun(). A fault
+ * leaves the PC at the instruction that faulted and the code in the fault
+ * register of the Machine, nothing is thrown or allocated.
+ * Machine.toException(status) builds the exception step() would have thrown.
+ */
+public final class Status {
+
+	public static final int RUNNING = 0; // the step, or the steps allowed for the run, completed
+	public static final int HALTED = 1;
+	public static final int CODE_ACCESS = 2; // PC outside the program
+	public static final int DATA_ACCESS = 3; // read outside data, the fault detail is the index
+	public static final int PARITY = 4;
+	public static final int ILLEGAL_FLAGS = 5; // the fault detail is the flags
+	public static final int ILLEGAL_OPCODE = 6; // the fault detail is the opcode
+	public static final int DIVIDE_BY_ZERO = 7;
+
+	private static final String[] NAMES = {"RUNNING", "HALTED", "CODE_ACCESS", "DATA_ACCESS",
+			"PARITY", "ILLEGAL_FLAGS", "ILLEGAL_OPCODE", "DIVIDE_BY_ZERO"};
+
+	private Status() {}
+
+	public static boolean isFault(int status) {
+		return status >= CODE_ACCESS;
+	}
+
+	public static String name(int status) {
+		return status >= 0 && status < NAMES.length ? NAMES[status] : "UNKNOWN";
+	}
+
+}
@@ -0,0 +1,34 @@
+package project;
+
+/**
+ * The program the snapshot and trace testers run, which stores 3, 2, 1
+ * through the pointer in data[1], which starts at 10.
+ */
+final class Stores {
+
+	static final String SOURCE = "LOD 0\nJMPZ MA\nSTO N1\nLOD 1\nADD M1\nSTO 1\n"
+			+ "LOD 0\nSUB M1\nSTO 0\nJUMP M0\nHALT\nDATA\n0 3\n1 A\n";
+
+	private Stores() {
+	}
+
+	static Machine machine(int dataSize, Memory.Backend backend) {
+		Machine m = new Machine(() -> {}, dataSize, Memory.CODE_SIZE, backend);
+		new FullAssembler().assemble(SOURCE, new StringBuilder()).load(m);
+		return m;
+	}
+
+	static Machine machine(Trace trace) {
+		Machine m = new Machine(() -> {});
+		m.setTrace(trace);
+		new FullAssembler().assemble(SOURCE, new StringBuilder()).load(m);
+		return m;
+	}
+
+	static String state(Machine m) {
+		StringBuilder state = new StringBuilder(m.getPC() + " " + m.getAccum() + " " + m.getProgramSize());
+		for (int i = 0; i < 16; i++) state.append(' ').append(m.getData(i));
+		return state.toString();
+	}
+
+}
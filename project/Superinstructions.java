@@ -0,0 +1,150 @@
+package project;
+
+/**
+ * Fusion pass over the packed code. It marks the start of each sequence
+ * that the interpreter can execute in one dispatch:
+ * <pre>
+ * LOAD_STORE      LOD x; STO y
+ * LOAD_OP_STORE   LOD x; ADD/SUB/MUL y; STO z
+ * COMPARE_BRANCH  CMPL/CMPZ x; NOT; JMPZ t
+ * </pre>
+ * The interpreter executes the instructions of a superinstruction back to
+ * back without dispatching each one, so the PC, accumulator and
+ * changedDataIndex end up as if they had run unfused, including when an
+ * indirect operand faults part way. The interpreter checks those pointers
+ * with readable() before each load, and the target() of the store before
+ * it writes. A jump into the middle of a sequence
+ * simply runs the remaining instructions unfused.
+ */
+class Superinstructions {
+
+	// the kinds are numbered past every decoded op, 0 to 31, so the interpreter
+	// can switch on both without an illegal opcode running as a superinstruction
+	static final byte NONE = 0, LOAD_STORE = 32, LOAD_OP_STORE = 33, COMPARE_BRANCH = 34;
+	static final int MAX_LENGTH = 3;
+
+	static void fuse(long[] code, int size, int dataSize, byte[] fusions) {
+
+		for (int i = 0; i < size; i++) {
+
+			fusions[i] = NONE;
+
+			if (i + 2 < size && isLoad(code[i], dataSize) && isArithmetic(code[i+1], dataSize)
+					&& isStore(code[i+2], dataSize)) {
+				fusions[i] = LOAD_OP_STORE;
+			}
+			else if (i + 1 < size && isLoad(code[i], dataSize) && isStore(code[i+1], dataSize)) {
+				fusions[i] = LOAD_STORE;
+			}
+			else if (i + 2 < size && isCompare(code[i], dataSize) && is(code[i+1], Instruction.NOT, 0)
+					&& isBranch(code[i+2])) {
+				fusions[i] = COMPARE_BRANCH;
+			}
+
+		}
+
+	}
+
+	// the operand of a LOD, ADD, SUB or MUL: data[arg], arg or data[data[arg]]
+	static int load(long slot, int[] data, Memory memory) {
+
+		int flags = Instruction.decodedFlags(Memory.decoded(slot));
+		int arg = Memory.arg(slot);
+		if (flags == 2) return arg;
+		int value = Memory.read(data, memory, arg);
+		return flags == 4 ? Memory.read(data, memory, value) : value;
+
+	}
+
+	// false if the LOD, ADD, SUB or MUL in slot is indirect through a pointer outside data
+	static boolean readable(long slot, int[] data, Memory memory) {
+
+		if (Instruction.decodedFlags(Memory.decoded(slot)) != 4) return true;
+		int pointer = Memory.read(data, memory, Memory.arg(slot));
+		return pointer >= 0 && pointer < memory.getDataSize();
+
+	}
+
+	// the accumulator after the ADD, SUB or MUL in slot
+	static int apply(int accum, long slot, int[] data, Memory memory) {
+
+		int operand = load(slot, data, memory);
+		int op = Instruction.decodedOp(Memory.decoded(slot));
+		return op == Instruction.ADD ? accum + operand : op == Instruction.SUB ? accum - operand : accum * operand;
+
+	}
+
+	// the address a STO writes to, which the interpreter checks before the write
+	static int target(long slot, int[] data, Memory memory) {
+
+		int arg = Memory.arg(slot);
+		return Instruction.decodedFlags(Memory.decoded(slot)) == 4 ? Memory.read(data, memory, arg) : arg;
+
+	}
+
+	// the accumulator after the CMPL or CMPZ in slot
+	static int compare(long slot, int[] data, Memory memory) {
+
+		int value = Memory.read(data, memory, Memory.arg(slot));
+		boolean less = Instruction.decodedOp(Memory.decoded(slot)) == Instruction.CMPL;
+		return (less ? value < 0 : value == 0) ? 1 : 0;
+
+	}
+
+	// the PC a taken JMPZ at pc goes to
+	static int branch(long slot, int pc) {
+
+		return Instruction.decodedFlags(Memory.decoded(slot)) == 2 ? Memory.arg(slot) : pc + Memory.arg(slot);
+
+	}
+
+	private static boolean is(long slot, int op, int flags) {
+
+		int decoded = Memory.decoded(slot);
+		return (decoded & Instruction.PARITY_OK) != 0 && Instruction.decodedOp(decoded) == op
+				&& Instruction.decodedFlags(decoded) == flags;
+
+	}
+
+	private static boolean inRange(long slot, int dataSize) {
+		return Memory.arg(slot) >= 0 && Memory.arg(slot) < dataSize;
+	}
+
+	private static boolean isLoad(long slot, int dataSize) {
+
+		return is(slot, Instruction.LOD, 2)
+				|| (is(slot, Instruction.LOD, 0) || is(slot, Instruction.LOD, 4)) && inRange(slot, dataSize);
+
+	}
+
+	private static boolean isArithmetic(long slot, int dataSize) {
+
+		for (int op : new int[] {Instruction.ADD, Instruction.SUB, Instruction.MUL}) {
+			if (is(slot, op, 2) || (is(slot, op, 0) || is(slot, op, 4)) && inRange(slot, dataSize)) {
+				return true;
+			}
+		}
+		return false;
+
+	}
+
+	private static boolean isStore(long slot, int dataSize) {
+
+		return (is(slot, Instruction.STO, 0) || is(slot, Instruction.STO, 4)) && inRange(slot, dataSize);
+
+	}
+
+	private static boolean isCompare(long slot, int dataSize) {
+
+		return (is(slot, Instruction.CMPL, 0) || is(slot, Instruction.CMPZ, 0)) && inRange(slot, dataSize);
+
+	}
+
+	// JMPZ relative or immediate, the modes that do not read data
+	private static boolean isBranch(long slot) {
+
+		return is(slot, Instruction.JMPZ, 0) || is(slot, Instruction.JMPZ, 2);
+
+	}
+
+}
@@ -0,0 +1,316 @@
+package project;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The last instructions a Machine executed, as fixed-width records in a
+ * ring buffer allocated once, outside the heap or mapped from a file, see
+ * Machine.setTrace. Recording allocates nothing. A record holds the step,
+ * the PC, the opcode and argument, the accumulator before and after, and
+ * for a STO the address, the value written and the value it replaced.
+ * With the old values a machine at the end of a trace can be rewound to
+ * the state after any recorded step.
+ * <p>
+ * A file trace starts with a HEADER_BYTES header, the big-endian ints
+ * MAGIC, RECORD_BYTES and the capacity, then the long count of records
+ * written, kept up to date so the file can be read after a crash.
+ */
+public class Trace implements Closeable {
+
+	public static final int RECORD_BYTES = 40;
+	static final int MAGIC = 0x54524345; // "TRCE"
+	static final int HEADER_BYTES = 24;
+	// the most records whose bytes, header included, an int can index
+	public static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES;
+	// the columns of write
+	public static final String HEADER = "step\tpc\tinstruction\taccum\taddress\tvalue";
+	// offsets in a record
+	private static final int STEP = 0, PC = 8, OPCODE = 12, ARG = 16, ACCUM_BEFORE = 20,
+			ACCUM = 24, ADDRESS = 28, VALUE = 32, OLD_VALUE = 36;
+
+	private ByteBuffer buffer;
+	private int capacity;
+	private long count;
+	// where the next record goes, count % capacity * RECORD_BYTES past the header
+	private int next = HEADER_BYTES;
+
+	/**
+	 * A trace of the last capacity instructions in native memory.
+	 */
+	public Trace(int capacity) {
+
+		this(ByteBuffer.allocateDirect(HEADER_BYTES + checked(capacity) * RECORD_BYTES), capacity);
+
+	}
+
+	/**
+	 * A trace of the last capacity instructions in file, which is created
+	 * or overwritten and mapped.
+	 */
+	public Trace(File file, int capacity) throws IOException {
+
+		this(map(file, HEADER_BYTES + (long)checked(capacity) * RECORD_BYTES), capacity);
+
+	}
+
+	private Trace(ByteBuffer buffer, int capacity) {
+
+		this(buffer, capacity, 0);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, RECORD_BYTES);
+		buffer.putInt(8, capacity);
+		buffer.putLong(16, 0);
+
+	}
+
+	private Trace(ByteBuffer buffer, int capacity, long count) {
+
+		this.buffer = buffer;
+		this.capacity = checked(capacity);
+		this.count = count;
+		next = HEADER_BYTES + (int)(count % capacity) * RECORD_BYTES;
+
+	}
+
+	// capacity, if it is from 1 to MAX_CAPACITY, which keeps every offset in a record an int
+	private static int checked(int capacity) {
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Trace capacity must be positive: " + capacity);
+		}
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Trace capacity must be at most " + MAX_CAPACITY + ": " + capacity);
+		}
+		return capacity;
+
+	}
+
+	private static MappedByteBuffer map(File file, long bytes) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+		}
+
+	}
+
+	/**
+	 * Opens a trace file written by a Trace, to read its records.
+	 * @throws IOException if file cannot be read or is not a trace
+	 */
+	public static Trace open(File file) throws IOException {
+
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != RECORD_BYTES) {
+			throw new IOException(file + " is not a trace");
+		}
+		int capacity = buffer.getInt(8);
+		long count = buffer.getLong(16);
+		if (capacity <= 0 || buffer.capacity() < HEADER_BYTES + (long)capacity * RECORD_BYTES || count < 0) {
+			throw new IOException(file + " is not a trace");
+		}
+
+		return new Trace(buffer, capacity, count);
+
+	}
+
+	void record(int pc, long slot, int accumBefore, int accum, int address, int value, int oldValue) {
+
+		int at = next;
+		next = at + RECORD_BYTES == HEADER_BYTES + capacity * RECORD_BYTES ? HEADER_BYTES : at + RECORD_BYTES;
+		buffer.putLong(at + STEP, count);
+		buffer.putInt(at + PC, pc);
+		buffer.putInt(at + OPCODE, Memory.opcode(slot) & 0xFF);
+		buffer.putInt(at + ARG, Memory.arg(slot));
+		buffer.putInt(at + ACCUM_BEFORE, accumBefore);
+		buffer.putInt(at + ACCUM, accum);
+		buffer.putInt(at + ADDRESS, address);
+		buffer.putInt(at + VALUE, value);
+		buffer.putInt(at + OLD_VALUE, oldValue);
+		buffer.putLong(16, ++count);
+
+	}
+
+	/**
+	 * @return the number of instructions recorded, the step of the next
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the step of the oldest record still in the ring
+	 */
+	public long getFirstStep() {
+		return Math.max(0, count - capacity);
+	}
+
+	private int at(long step) {
+
+		if (step < getFirstStep() || step >= count) {
+			throw new IllegalArgumentException("Step " + step + " is not in the trace, which holds "
+					+ getFirstStep() + " to " + (count - 1));
+		}
+		return HEADER_BYTES + (int)(step % capacity) * RECORD_BYTES;
+
+	}
+
+	public int getPC(long step) {
+		return buffer.getInt(at(step) + PC);
+	}
+
+	public Instruction getInstruction(long step) {
+
+		int at = at(step);
+		return new Instruction((byte)buffer.getInt(at + OPCODE), buffer.getInt(at + ARG));
+
+	}
+
+	public int getAccumBefore(long step) {
+		return buffer.getInt(at(step) + ACCUM_BEFORE);
+	}
+
+	public int getAccum(long step) {
+		return buffer.getInt(at(step) + ACCUM);
+	}
+
+	/**
+	 * @return the data address the step wrote, -1 if it wrote none
+	 */
+	public int getAddress(long step) {
+		return buffer.getInt(at(step) + ADDRESS);
+	}
+
+	public int getValue(long step) {
+		return buffer.getInt(at(step) + VALUE);
+	}
+
+	public int getOldValue(long step) {
+		return buffer.getInt(at(step) + OLD_VALUE);
+	}
+
+	/**
+	 * Puts machine back in the state it had after step, undoing the
+	 * writes of the steps after it from the newest back. The machine must
+	 * be in the state the last recorded step left it in, as a machine is
+	 * when it stops with this trace set.
+	 * @param step from getFirstStep() - 1, before the oldest record, to
+	 * getCount() - 1, which changes nothing
+	 */
+	public void rewind(Machine machine, long step) {
+
+		if (step < getFirstStep() - 1 || step >= count) {
+			throw new IllegalArgumentException("Cannot rewind to step " + step + ", the trace holds "
+					+ getFirstStep() + " to " + (count - 1));
+		}
+		for (long s = count - 1; s > step; s--) {
+
+			int at = at(s);
+			int address = buffer.getInt(at + ADDRESS);
+			if (address >= 0) {
+				machine.setData(address, buffer.getInt(at + OLD_VALUE));
+			}
+			machine.setPC(buffer.getInt(at + PC));
+			machine.setAccum(buffer.getInt(at + ACCUM_BEFORE));
+
+		}
+
+	}
+
+	/**
+	 * Writes the records from step to the newest as tab separated lines.
+	 * The address and value are empty for a step that wrote nothing.
+	 */
+	public void write(PrintStream out, long from) {
+
+		out.println(HEADER);
+		for (long step = Math.max(from, getFirstStep()); step < count; step++) {
+
+			int address = getAddress(step);
+			out.println(step + "\t" + getPC(step) + "\t" + getInstruction(step).getText() + "\t" + getAccum(step)
+					+ "\t" + (address >= 0 ? address + "\t" + getValue(step) : "\t"));
+
+		}
+
+	}
+
+	/**
+	 * Writes a mapped trace out to its file. An in-memory trace has
+	 * nothing to write.
+	 */
+	public void force() {
+
+		if (buffer instanceof MappedByteBuffer && !buffer.isReadOnly()) {
+			((MappedByteBuffer)buffer).force();
+		}
+
+	}
+
+	@Override
+	public void close() {
+		force();
+	}
+
+	/**
+	 * Usage: Trace file [last n] or Trace file -replay program.pexe step.
+	 * The first writes the newest n records, 20 by default. The second
+	 * loads program, which must be the one traced from its first step,
+	 * runs it to the end of the trace, rewinds it to step and writes the
+	 * PC, the accumulator and every address the trace wrote.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length == 0) {
+			System.out.println("Usage: Trace file [last n] | Trace file -replay program.pexe step");
+			return;
+		}
+
+		Trace trace = open(new File(args[0]));
+		if (args.length < 4 || !args[1].equals("-replay")) {
+			long last = args.length > 1 ? Long.parseLong(args[1]) : 20;
+			trace.write(System.out, trace.getCount() - last);
+			return;
+		}
+
+		long step = Long.parseLong(args[3]);
+		Machine machine = new Machine(() -> {});
+		String loaded = Loader.load(machine, new File(args[2]));
+		if (loaded.isEmpty() || !Character.isDigit(loaded.charAt(0))) {
+			System.out.println(loaded);
+			return;
+		}
+		machine.tryRun(trace.getCount());
+		if (machine.getExecuted() != trace.getCount() || machine.getAccum() != trace.getAccum(trace.getCount() - 1)) {
+			System.out.println("The program does not run as traced");
+			return;
+		}
+
+		trace.rewind(machine, step);
+		System.out.println("step " + step + ": pc " + machine.getPC() + " accum " + machine.getAccum());
+		Set<Integer> addresses = new TreeSet<>();
+		for (long s = trace.getFirstStep(); s < trace.getCount(); s++) {
+			if (trace.getAddress(s) >= 0) addresses.add(trace.getAddress(s));
+		}
+		for (int address : addresses) {
+			System.out.println("data[" + address + "] = " + machine.getData(address));
+		}
+
+	}
+
+}
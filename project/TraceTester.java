@@ -0,0 +1,105 @@
+package project;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+public class TraceTester {
+
+	@TempDir
+	File dir;
+
+	@Test
+	// the run is the same with a trace, and the records are the instructions it ran
+	public void testRecords() {
+		Machine plain = Stores.machine(null);
+		RunResult expected = plain.runUntilHalt();
+		Trace trace = new Trace(100);
+		Machine m = Stores.machine(trace);
+		assertEquals(expected.getSteps(), m.runUntilHalt().getSteps());
+		long last = trace.getCount() - 1;
+		assertAll (
+				() -> assertEquals(Stores.state(plain), Stores.state(m)),
+				() -> assertEquals(expected.getSteps(), trace.getCount()),
+				() -> assertEquals(0, trace.getFirstStep()),
+				() -> assertEquals("STO  N1", trace.getInstruction(2).getText()),
+				() -> assertEquals(10, trace.getAddress(2)),
+				() -> assertEquals(3, trace.getValue(2)),
+				() -> assertEquals(0, trace.getOldValue(2)),
+				() -> assertEquals(-1, trace.getAddress(3)),
+				() -> assertEquals(10, trace.getPC(last)),
+				() -> assertEquals("HALT  0", trace.getInstruction(last).getText())
+				);
+	}
+
+	@Test
+	// rewinding gives the state a plain machine has after as many steps, for every step the ring holds
+	public void testRewind() {
+		Trace full = new Trace(100);
+		Stores.machine(full).runUntilHalt();
+		for (int capacity : new int[] {100, 7}) {
+			Trace ring = new Trace(capacity);
+			Stores.machine(ring).runUntilHalt();
+			for (long step = ring.getFirstStep() - 1; step < ring.getCount(); step++) {
+				Trace trace = new Trace(capacity);
+				Machine m = Stores.machine(trace);
+				m.runUntilHalt();
+				trace.rewind(m, step);
+				Machine plain = Stores.machine(null);
+				plain.run(step + 1);
+				assertEquals(Stores.state(plain), Stores.state(m), "step " + step + " of " + capacity);
+			}
+			assertThrows(IllegalArgumentException.class, () -> ring.rewind(Stores.machine(null), ring.getFirstStep() - 2));
+		}
+		assertThrows(IllegalArgumentException.class, () -> new Trace(7).getPC(0));
+	}
+
+	@Test
+	// a file trace can be read back, the newest records after the ring wraps
+	public void testFile() throws IOException {
+		File file = new File(dir, "stores.trace");
+		try (Trace trace = new Trace(file, 4)) {
+			Stores.machine(trace).runUntilHalt();
+		}
+		Trace trace = Trace.open(file);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		trace.write(new PrintStream(bytes, true), 0);
+		assertAll (
+				() -> assertEquals(4, trace.getCapacity()),
+				() -> assertEquals(trace.getCount() - 4, trace.getFirstStep()),
+				() -> assertEquals(Trace.HEADER + "\n"
+						+ (trace.getCount() - 4) + "\t9\tJUMP  M0\t0\t\t\n"
+						+ (trace.getCount() - 3) + "\t0\tLOD  0\t0\t\t\n"
+						+ (trace.getCount() - 2) + "\t1\tJMPZ  MA\t0\t\t\n"
+						+ (trace.getCount() - 1) + "\t10\tHALT  0\t0\t\t\n", bytes.toString().replace("\r\n", "\n"))
+				);
+		Files.write(file.toPath(), new byte[] {1, 2, 3});
+		assertThrows(IOException.class, () -> Trace.open(file));
+	}
+
+	@Test
+	// a capacity whose bytes an int cannot index is refused before anything is allocated
+	public void testCapacity() {
+		File file = new File(dir, "huge.trace");
+		for (int capacity : new int[] {0, Trace.MAX_CAPACITY + 1, Integer.MAX_VALUE}) {
+			assertAll (
+					() -> assertTrue(assertThrows(IllegalArgumentException.class, () -> new Trace(capacity))
+							.getMessage().startsWith("Trace capacity")),
+					() -> assertTrue(assertThrows(IllegalArgumentException.class, () -> new Trace(file, capacity))
+							.getMessage().startsWith("Trace capacity"))
+					);
+		}
+		assertFalse(file.exists());
+	}
+
+}
@@ -0,0 +1,117 @@
+package project.bench;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import project.FullAssembler;
+import project.Pexe;
+
+public class BenchTester {
+
+	@TempDir
+	File dir;
+
+	@Test
+	// every measured iteration is scored and the error is Student's t interval
+	public void testScores() {
+		Harness harness = new Harness(1, 3, 10);
+		BenchmarkResult result = harness.run("count", Map.of(), () -> 1);
+		BenchmarkResult fixed = new BenchmarkResult("fixed", Map.of(), new double[] {10, 20});
+		assertAll (
+				() -> assertEquals(3, result.getScores().length),
+				() -> assertTrue(result.getScore() > 0),
+				() -> assertTrue(harness.getSink() > 0),
+				() -> assertEquals(15, fixed.getScore(), 1e-9),
+				() -> assertEquals(636.62 * 5, fixed.getError(), 1e-6),
+				() -> assertTrue(Double.isNaN(new BenchmarkResult("one", Map.of(), new double[] {1}).getError()))
+				);
+	}
+
+	@Test
+	// results are written in the layout of JMH's json
+	public void testJson() throws IOException {
+		Harness harness = new Harness(0, 2, 1);
+		BenchmarkResult result = new BenchmarkResult("Loader.load", Map.of("lines", "10\"0"), new double[] {1.5, 2.5});
+		StringWriter out = new StringWriter();
+		harness.write(List.of(result, result), out);
+		String json = out.toString();
+		harness.setForks(3);
+		StringWriter forked = new StringWriter();
+		harness.write(List.of(result), forked);
+		assertAll (
+				() -> assertTrue(json.startsWith("[\n    {\n        \"benchmark\" : \"Loader.load\",\n        \"mode\" : \"thrpt\",")),
+				() -> assertTrue(json.contains("\"forks\" : 0,\n")),
+				() -> assertTrue(forked.toString().contains("\"forks\" : 3,\n")),
+				() -> assertTrue(json.contains("\"lines\" : \"10\\\"0\"\n")),
+				() -> assertTrue(json.contains("\"score\" : 2.0,\n")),
+				() -> assertTrue(json.contains("\"rawData\" : [\n                [\n                    1.5,\n                    2.5\n")),
+				() -> assertEquals(2, json.split("\"benchmark\"").length - 1),
+				() -> assertTrue(json.endsWith("        }\n    }\n]\n"))
+				);
+	}
+
+	@Test
+	// the synthetic source assembles, and only benchmarks matching the filter run
+	public void testBenchmarks() throws IOException {
+		assertEquals(Benchmarks.SOURCE_LINES,
+				new FullAssembler().assemble(Benchmarks.source(Benchmarks.SOURCE_LINES), new StringBuilder()).getProgramSize());
+		Benchmarks benchmarks = new Benchmarks(new Harness(0, 1, 1), "Loader");
+		benchmarks.step();
+		benchmarks.assemblers();
+		benchmarks.programs(new File(dir, "missing"));
+		benchmarks.loader(dir);
+		assertEquals(4, benchmarks.getResults().size());
+		assertThrows(IOException.class, () -> new Benchmarks(new Harness(0, 1, 1), "").programs(new File(dir, "missing")));
+	}
+
+	@Test
+	// each backend sweeps a memory and the machines it kept are closed
+	public void testMemory() {
+		Benchmarks benchmarks = new Benchmarks(new Harness(0, 1, 1), "Memory");
+		benchmarks.memory(64);
+		List<BenchmarkResult> results = benchmarks.getResults();
+		assertAll (
+				() -> assertEquals(2, results.size()),
+				() -> assertEquals(Map.of("backend", "HEAP", "cells", "64"), results.get(0).getParams()),
+				() -> assertEquals(Map.of("backend", "OFF_HEAP", "cells", "64"), results.get(1).getParams())
+				);
+	}
+
+	@Test
+	// a forked JVM runs one benchmark by its index and hands back its result as a line
+	public void testFork() throws IOException {
+		Benchmarks counter = new Benchmarks(new Harness(0, 1, 1), "Loader|Assembler");
+		counter.setCounting(true);
+		counter.assemblers();
+		counter.loader(dir);
+		Benchmarks one = new Benchmarks(new Harness(0, 2, 1), "Loader|Assembler");
+		one.setOnly(5);
+		one.assemblers();
+		one.loader(dir);
+		BenchmarkResult result = one.getResults().get(0);
+		BenchmarkResult parsed = BenchmarkResult.parse(result.toLine());
+		BenchmarkResult merged = parsed.plus(parsed);
+		assertAll (
+				() -> assertEquals(6, counter.getCount()),
+				() -> assertTrue(counter.getResults().isEmpty()),
+				() -> assertEquals(1, one.getResults().size()),
+				() -> assertEquals("Loader.load", result.getBenchmark()),
+				() -> assertEquals(Map.of("lines", "" + 10*Benchmarks.SOURCE_LINES, "version", "" + Pexe.VERSION_2),
+						parsed.getParams()),
+				() -> assertEquals(result.getScores()[1], parsed.getScores()[1]),
+				() -> assertEquals(4, merged.getScores().length),
+				() -> assertEquals(result.getScore(), merged.getScore(), 1e-9)
+				);
+	}
+
+}
@@ -0,0 +1,123 @@
+package project.bench;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The scores of one benchmark, in operations per second, one for each
+ * measured iteration. The error is the half width of a 99.9% confidence
+ * interval of the mean, as JMH reports it.
+ */
+public class BenchmarkResult {
+
+	private String benchmark;
+	private Map<String, String> params;
+	private double[] scores;
+
+	public BenchmarkResult(String benchmark, Map<String, String> params, double[] scores) {
+
+		this.benchmark = benchmark;
+		this.params = params;
+		this.scores = scores;
+
+	}
+
+	public String getBenchmark() {
+		return benchmark;
+	}
+
+	public Map<String, String> getParams() {
+		return params;
+	}
+
+	public double[] getScores() {
+		return scores;
+	}
+
+	public double getScore() {
+
+		double sum = 0;
+		for (double score : scores) sum += score;
+		return sum / scores.length;
+
+	}
+
+	public double getError() {
+
+		int n = scores.length;
+		if (n < 2) {
+			return Double.NaN;
+		}
+		double mean = getScore();
+		double squares = 0;
+		for (double score : scores) squares += (score - mean) * (score - mean);
+		return t999(n - 1) * Math.sqrt(squares / (n - 1) / n);
+
+	}
+
+	// two-sided 99.9% quantiles of Student's t for 1 to 30 degrees of freedom
+	private static final double[] T999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+			4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85,
+			3.82, 3.79, 3.77, 3.75, 3.73, 3.71, 3.69, 3.67, 3.66, 3.65};
+
+	// past 30 the normal quantile is near enough
+	private static double t999(int degrees) {
+		return degrees <= T999.length ? T999[degrees - 1] : 3.29;
+	}
+
+	/**
+	 * @return the result as one tab separated line, which parse reads
+	 * back: the benchmark, the params as name=value;... and the scores
+	 */
+	public String toLine() {
+
+		StringBuilder line = new StringBuilder(benchmark).append('\t');
+		String separator = "";
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			line.append(separator).append(param.getKey()).append('=').append(param.getValue());
+			separator = ";";
+		}
+		for (double score : scores) {
+			line.append('\t').append(score);
+		}
+		return line.toString();
+
+	}
+
+	/**
+	 * @return this result with the scores of other, the same benchmark
+	 * measured in another JVM, after its own
+	 */
+	public BenchmarkResult plus(BenchmarkResult other) {
+
+		double[] all = Arrays.copyOf(scores, scores.length + other.scores.length);
+		System.arraycopy(other.scores, 0, all, scores.length, other.scores.length);
+		return new BenchmarkResult(benchmark, params, all);
+
+	}
+
+	public static BenchmarkResult parse(String line) {
+
+		String[] fields = line.split("\t", -1);
+		Map<String, String> params = new LinkedHashMap<>();
+		if (!fields[1].isEmpty()) {
+			for (String param : fields[1].split(";")) {
+				int equals = param.indexOf('=');
+				params.put(param.substring(0, equals), param.substring(equals + 1));
+			}
+		}
+		double[] scores = new double[fields.length - 2];
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = Double.parseDouble(fields[i + 2]);
+		}
+		return new BenchmarkResult(fields[0], params, scores);
+
+	}
+
+	public String toString() {
+		return String.format("%-40s %-28s %,16.1f +- %,.1f ops/s", benchmark, params.isEmpty() ? "" : params.toString(),
+				getScore(), getError());
+	}
+
+}
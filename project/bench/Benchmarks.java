@@ -0,0 +1,494 @@
+package project.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import project.FullAssembler;
+import project.Instruction;
+import project.Loader;
+import project.Machine;
+import project.Memory;
+import project.Pexe;
+import project.Program;
+import project.ProgramCache;
+import project.SimpleAssembler;
+
+/**
+ * The simulator's benchmarks: Machine.step for each opcode in each
+ * addressing mode it has, whole runs of the sample programs, the two
+ * assemblers on a synthetic source, Loader.load and a sweep of a large
+ * memory in each backend. Each is measured by
+ * a Harness and the results are written as JMH's JSON, to compare runs
+ * across releases. By default main measures each benchmark in a JVM of
+ * its own, started with this one's options, so the JIT has seen no other
+ * benchmark's code and the results do not depend on the order they run.
+ * Usage: Benchmarks [regex] [-wi warmups] [-i iterations] [-time ms]
+ * [-f forks] [-rf results.json] [-programs directory]
+ * Only benchmarks whose name matches the regex are run. -f 0 measures
+ * them all in this JVM.
+ */
+public class Benchmarks {
+
+	// the sample programs run whole, from pasm_pexe
+	static final String[] PROGRAMS = {"factorial", "merge", "qsort"};
+	static final int SOURCE_LINES = 10_000;
+	// the data addresses of the synthetic sources are below this
+	private static final int ADDRESSES = 4096;
+
+	// the copies of a non-jump instruction between the jumps back to the start
+	private static final int UNROLL = 1000;
+
+	// the cells of each machine the memory benchmark sweeps, and how many are kept alive
+	static final int MEMORY_CELLS = 1 << 20;
+	private static final int MEMORY_MACHINES = 8;
+
+	private Harness harness;
+	private Pattern filter;
+	private List<BenchmarkResult> results = new ArrayList<>();
+	private PrintStream out; // null prints nothing
+	private int only = -1; // the index of the one benchmark to run, -1 for all
+	private boolean counting; // count the benchmarks selected, run none
+	private int count;
+
+	public Benchmarks(Harness harness, String filter) {
+
+		this.harness = harness;
+		this.filter = Pattern.compile(filter);
+
+	}
+
+	public List<BenchmarkResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * Prints every result to out as it is measured, null, the default,
+	 * for none.
+	 */
+	public void setOut(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Runs only the benchmark with this index among those the filter
+	 * selects, in the order they are run, -1 for all of them.
+	 */
+	public void setOnly(int index) {
+		only = index;
+	}
+
+	/**
+	 * Only counts the benchmarks the filter selects, see getCount.
+	 */
+	public void setCounting(boolean counting) {
+		this.counting = counting;
+	}
+
+	/**
+	 * @return the number of benchmarks the filter has selected so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private boolean selected(String benchmark) {
+		return filter.matcher(benchmark).find();
+	}
+
+	private void run(String benchmark, Map<String, String> params, LongSupplier operation) {
+
+		if (!selected(benchmark)) {
+			return;
+		}
+		int index = count++;
+		if (counting || only >= 0 && index != only) {
+			return;
+		}
+		BenchmarkResult result = harness.run(benchmark, params, operation);
+		results.add(result);
+		if (out != null) {
+			out.println(result);
+		}
+
+	}
+
+	private static Program assemble(String source) {
+
+		StringBuilder error = new StringBuilder();
+		Program program = new FullAssembler().assemble(source, error);
+		if (program == null) {
+			throw new IllegalStateException("Benchmark source does not assemble: " + error);
+		}
+		return program;
+
+	}
+
+	/**
+	 * Machine.step on code that is the one instruction, with data[0] and
+	 * data[1] 1 and data[2] 0. A jump jumps to itself, through data[2] when
+	 * indirect. Anything else is repeated UNROLL times and followed by
+	 * JUMP M0, one step in UNROLL + 1.
+	 */
+	public void step() {
+
+		for (String mnemonic : new TreeSet<>(Instruction.OPCODES.keySet())) {
+
+			if (mnemonic.equals("HALT")) {
+				continue;
+			}
+			Map<String, String> modes = new LinkedHashMap<>();
+			boolean jump = Instruction.JMP_MNEMONICS.contains(mnemonic);
+			if (Instruction.NO_ARG_MNEMONICS.contains(mnemonic)) {
+				modes.put("none", "");
+			}
+			else {
+				modes.put("direct", jump ? "0" : "1");
+				if (Instruction.IMM_MNEMONICS.contains(mnemonic)) modes.put("immediate", jump ? "M0" : "M1");
+				if (Instruction.IND_MNEMONICS.contains(mnemonic)) modes.put("indirect", jump ? "N2" : "N0");
+				if (jump) modes.put("special jump", "J2");
+			}
+
+			for (Map.Entry<String, String> mode : modes.entrySet()) {
+
+				String line = (mnemonic + " " + mode.getValue()).trim() + "\n";
+				StringBuilder source = new StringBuilder(jump ? line : line.repeat(UNROLL) + "JUMP M0\n");
+				source.append("DATA\n0 1\n1 1\n2 0\n");
+
+				Machine machine = new Machine(() -> {}, Memory.DATA_SIZE, UNROLL + 1);
+				assemble(source.toString()).load(machine);
+				Map<String, String> params = new LinkedHashMap<>();
+				params.put("mnemonic", mnemonic);
+				params.put("mode", mode.getKey());
+				run("Machine.step", params, () -> {
+					machine.step();
+					return machine.getPC();
+				});
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * A new machine loaded with each sample program and run to its HALT,
+	 * as the FleetRunner runs programs.
+	 */
+	public void programs(File directory) throws IOException {
+
+		if (!selected("Machine.runUntilHalt")) {
+			return;
+		}
+
+		ProgramCache cache = new ProgramCache(ProgramCache.DEFAULT_BYTES);
+		for (String name : PROGRAMS) {
+
+			Program program = cache.get(new File(directory, name + ".pexe"));
+			if (program == null) {
+				throw new IOException("No " + name + ".pexe in " + directory);
+			}
+			run("Machine.runUntilHalt", Map.of("program", name), () -> {
+				Machine machine = new Machine(() -> {});
+				program.load(machine);
+				return machine.runUntilHalt().getSteps();
+			});
+
+		}
+
+	}
+
+	/**
+	 * A correct source of lines instructions, in every mode, and a data
+	 * section of a tenth as many lines, the same for the same lines.
+	 */
+	public static String source(int lines) {
+
+		Random random = new Random(lines);
+		String[] mnemonics = {"LOD", "ADD", "SUB", "MUL", "DIV", "AND", "JUMP", "JMPZ", "STO", "CMPL", "CMPZ", "NOT", "NOP"};
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+
+			String mnemonic = mnemonics[random.nextInt(mnemonics.length)];
+			String arg = Integer.toHexString(random.nextInt(ADDRESSES));
+			source.append(mnemonic);
+			if (Instruction.NO_ARG_MNEMONICS.contains(mnemonic)) {
+				// no argument
+			}
+			else if (Instruction.IMM_MNEMONICS.contains(mnemonic) && random.nextInt(3) == 0) {
+				source.append(" M").append(arg);
+			}
+			else if (Instruction.IND_MNEMONICS.contains(mnemonic) && random.nextInt(3) == 0) {
+				source.append(" N").append(arg);
+			}
+			else {
+				source.append(' ').append(arg);
+			}
+			source.append('\n');
+
+		}
+		source.append("DATA\n");
+		for (int i = 0; i < lines / 10; i++) {
+			source.append(Integer.toHexString(random.nextInt(ADDRESSES))).append(' ')
+					.append(Integer.toString(random.nextInt(), 16)).append('\n');
+		}
+		return source.toString();
+
+	}
+
+	/**
+	 * The two assemblers, in memory so the disk is not measured.
+	 */
+	public void assemblers() {
+
+		String source = source(SOURCE_LINES);
+		assemble(source);
+		Map<String, String> params = Map.of("lines", "" + SOURCE_LINES);
+		run("FullAssembler.assemble", params,
+				() -> new FullAssembler().assemble(source, new StringBuilder()).getProgramSize());
+		run("SimpleAssembler.assemble", params,
+				() -> new SimpleAssembler().assemble(source, new StringBuilder()).getProgramSize());
+
+	}
+
+	/**
+	 * Loader.load of a synthetic pexe into a new machine, one small enough
+	 * to be read and one large enough to be mapped, in version 1, which the
+	 * assemblers write by default, and in version 2.
+	 */
+	public void loader(File directory) throws IOException {
+
+		if (!selected("Loader.load")) {
+			return;
+		}
+
+		for (int lines : new int[] {SOURCE_LINES, 10*SOURCE_LINES}) {
+
+			Program program = assemble(source(lines));
+			for (int version : new int[] {Pexe.VERSION_1, Pexe.VERSION_2}) {
+
+				File pexe = new File(directory, "bench-" + lines + "-v" + version + ".pexe");
+				Pexe.write(pexe, program, version);
+				pexe.deleteOnExit();
+				Map<String, String> params = new LinkedHashMap<>();
+				params.put("lines", "" + lines);
+				params.put("version", "" + version);
+				run("Loader.load", params, () -> {
+					try {
+						Machine machine = new Machine(() -> {}, ADDRESSES, lines);
+						return Loader.load(machine, pexe).length();
+					}
+					catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				});
+
+			}
+
+		}
+
+	}
+
+	// Assembled opcodes with parity: LOD = 0b00101000, STO N = 0b00110101,
+	// ADD N = 0b01010101, STO = 0b00110000, ADD M = 0b01010011,
+	// SUB = 0b01011001, JMPZ M = 0b00100010, JUMP M = 0b00011011, HALT = 0b00010001
+	// data[0] is the pointer, data[1] the end and data[2] the sum
+	private static Machine sweep(int cells, Memory.Backend backend) {
+		Machine m = new Machine(() -> {}, cells, Memory.CODE_SIZE, backend);
+		m.addCode(new Instruction((byte)0b00101000, 0));  // 0: LOD 0
+		m.addCode(new Instruction((byte)0b00110101, 0));  // 1: STO N0
+		m.addCode(new Instruction((byte)0b00101000, 2));  // 2: LOD 2
+		m.addCode(new Instruction((byte)0b01010101, 0));  // 3: ADD N0
+		m.addCode(new Instruction((byte)0b00110000, 2));  // 4: STO 2
+		m.addCode(new Instruction((byte)0b00101000, 0));  // 5: LOD 0
+		m.addCode(new Instruction((byte)0b01010011, 1));  // 6: ADD M1
+		m.addCode(new Instruction((byte)0b00110000, 0));  // 7: STO 0
+		m.addCode(new Instruction((byte)0b01011001, 1));  // 8: SUB 1
+		m.addCode(new Instruction((byte)0b00100010, 11)); // 9: JMPZ M11
+		m.addCode(new Instruction((byte)0b00011011, 0));  // 10: JUMP M0
+		m.addCode(new Instruction((byte)0b00010001, 0));  // 11: HALT
+		m.setData(0, 3);
+		m.setData(1, cells);
+		return m;
+	}
+
+	/**
+	 * A new machine of cells cells in each memory backend, that writes and
+	 * reads back every cell, while the last few machines are kept alive so
+	 * the collector has a heap of them to work through.
+	 */
+	public void memory(int cells) {
+
+		for (Memory.Backend backend : Memory.Backend.values()) {
+
+			Machine[] live = new Machine[MEMORY_MACHINES];
+			int[] next = {0};
+			Map<String, String> params = new LinkedHashMap<>();
+			params.put("backend", backend.toString());
+			params.put("cells", "" + cells);
+			try {
+				run("Memory.sweep", params, () -> {
+					int i = next[0]++ % live.length;
+					if (live[i] != null) live[i].close();
+					live[i] = sweep(cells, backend);
+					return live[i].runUntilHalt().getSteps();
+				});
+			}
+			finally {
+				for (Machine machine : live) {
+					if (machine != null) machine.close();
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Runs every benchmark the filter selects.
+	 */
+	public void all(File programs) throws IOException {
+
+		step();
+		programs(programs);
+		assemblers();
+		loader(new File(System.getProperty("java.io.tmpdir")));
+		memory(MEMORY_CELLS);
+
+	}
+
+	/**
+	 * Measures each benchmark filter selects in forks new JVMs, one after
+	 * another, with this JVM's class path and options. Each prints its
+	 * results to this one's output.
+	 * @return a result per benchmark, with the scores of all its forks
+	 */
+	public static List<BenchmarkResult> fork(Harness harness, String filter, int forks, File programs)
+			throws IOException, InterruptedException {
+
+		Benchmarks counter = new Benchmarks(harness, filter);
+		counter.setCounting(true);
+		counter.all(programs);
+
+		List<BenchmarkResult> results = new ArrayList<>();
+		File scores = File.createTempFile("bench", ".tsv");
+		scores.deleteOnExit();
+		for (int index = 0; index < counter.getCount(); index++) {
+
+			BenchmarkResult merged = null;
+			for (int fork = 0; fork < forks; fork++) {
+
+				List<String> command = new ArrayList<>();
+				command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+				command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+				command.addAll(List.of("-cp", System.getProperty("java.class.path"), Benchmarks.class.getName(),
+						filter, "-wi", "" + harness.getWarmups(), "-i", "" + harness.getIterations(),
+						"-time", "" + harness.getIterationMillis(), "-programs", programs.getPath(),
+						"-f", "0", "-only", "" + index, "-scores", scores.getPath()));
+				Process process = new ProcessBuilder(command).inheritIO().start();
+				if (process.waitFor() != 0) {
+					throw new IOException("Benchmark " + index + " failed in its JVM, exit " + process.exitValue());
+				}
+				BenchmarkResult result = BenchmarkResult.parse(Files.readAllLines(scores.toPath()).get(0));
+				merged = merged == null ? result : merged.plus(result);
+
+			}
+			results.add(merged);
+
+		}
+		harness.setForks(forks);
+		return results;
+
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		String filter = "";
+		int warmups = 5;
+		int iterations = 5;
+		long millis = 1000;
+		int forks = 1;
+		int only = -1;
+		String resultFile = "bench-result.json";
+		String scoreFile = null;
+		String programs = "pasm_pexe";
+
+		for (int i = 0; i < args.length; i++) {
+
+			switch (args[i]) {
+			case "-wi":
+				warmups = Integer.parseInt(args[++i]);
+				break;
+			case "-i":
+				iterations = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				millis = Long.parseLong(args[++i]);
+				break;
+			case "-f":
+				forks = Integer.parseInt(args[++i]);
+				break;
+			case "-only":
+				only = Integer.parseInt(args[++i]);
+				break;
+			case "-scores":
+				// where a forked JVM leaves its results for the one that started it
+				scoreFile = args[++i];
+				break;
+			case "-rf":
+				resultFile = args[++i];
+				break;
+			case "-programs":
+				programs = args[++i];
+				break;
+			default:
+				filter = args[i];
+			}
+
+		}
+
+		Harness harness = new Harness(warmups, iterations, millis);
+		List<BenchmarkResult> results;
+		if (forks > 0) {
+
+			results = fork(harness, filter, forks, new File(programs));
+
+		}
+		else {
+
+			Benchmarks benchmarks = new Benchmarks(harness, filter);
+			benchmarks.setOut(System.out);
+			benchmarks.setOnly(only);
+			benchmarks.all(new File(programs));
+			results = benchmarks.getResults();
+
+		}
+
+		if (scoreFile != null) {
+			try (PrintStream out = new PrintStream(scoreFile)) {
+				for (BenchmarkResult result : results) out.println(result.toLine());
+			}
+			return;
+		}
+		try (Writer out = new FileWriter(resultFile)) {
+			harness.write(results, out);
+		}
+		// a forked JVM's sink stays in that JVM
+		System.out.println(results.size() + " benchmarks written to " + resultFile
+				+ (forks > 0 ? "" : " (sink " + harness.getSink() + ")"));
+
+	}
+
+}
@@ -0,0 +1,186 @@
+package project.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures the throughput of an operation the way JMH's Mode.Throughput
+ * does: warmup iterations that are thrown away, then measured iterations
+ * of a fixed time, each scored in operations per second. What each
+ * operation returns is summed into a sink that is read at the end, so the
+ * JIT cannot drop the work as dead code. The harness measures in the JVM
+ * it runs in. Benchmarks can start a JVM for each benchmark, so none sees
+ * the JIT profile of another, and then sets forks for the results.
+ */
+public class Harness {
+
+	private int warmups;
+	private int iterations;
+	private long iterationNanos;
+	private int forks;
+	private long sink;
+
+	public Harness(int warmups, int iterations, long iterationMillis) {
+
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1_000_000;
+
+	}
+
+	public int getWarmups() {
+		return warmups;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public long getIterationMillis() {
+		return iterationNanos / 1_000_000;
+	}
+
+	/**
+	 * @param forks the JVMs each benchmark was measured in, written with
+	 * the results. 0, the default, for measured in this JVM.
+	 */
+	public void setForks(int forks) {
+		this.forks = forks;
+	}
+
+	public int getForks() {
+		return forks;
+	}
+
+	public BenchmarkResult run(String benchmark, Map<String, String> params, LongSupplier operation) {
+
+		for (int i = 0; i < warmups; i++) {
+			iteration(operation);
+		}
+		double[] scores = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			scores[i] = iteration(operation);
+		}
+		return new BenchmarkResult(benchmark, params, scores);
+
+	}
+
+	// operations per second over one iteration, checking the clock only every batch
+	private double iteration(LongSupplier operation) {
+
+		long sum = 0;
+		long operations = 0;
+		int batch = 1;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+
+			for (int i = 0; i < batch; i++) {
+				sum += operation.getAsLong();
+			}
+			operations += batch;
+			elapsed = System.nanoTime() - start;
+			if (elapsed < iterationNanos / 100 && batch < 1 << 20) batch *= 2;
+
+		} while (elapsed < iterationNanos);
+		sink += sum;
+		return operations * 1e9 / elapsed;
+
+	}
+
+	/**
+	 * What every operation has returned, which keeps its work alive.
+	 */
+	public long getSink() {
+		return sink;
+	}
+
+	/**
+	 * Writes results as JMH's -rf json does, so the files can go to the
+	 * same tools that compare JMH runs.
+	 */
+	public void write(List<BenchmarkResult> results, Writer out) throws IOException {
+
+		out.write("[\n");
+		for (int r = 0; r < results.size(); r++) {
+
+			BenchmarkResult result = results.get(r);
+			out.write("    {\n");
+			out.write("        \"benchmark\" : " + quote(result.getBenchmark()) + ",\n");
+			out.write("        \"mode\" : \"thrpt\",\n");
+			out.write("        \"threads\" : 1,\n");
+			out.write("        \"forks\" : " + forks + ",\n");
+			out.write("        \"jvm\" : " + quote(System.getProperty("java.home")) + ",\n");
+			out.write("        \"jdkVersion\" : " + quote(System.getProperty("java.version")) + ",\n");
+			out.write("        \"warmupIterations\" : " + warmups + ",\n");
+			out.write("        \"warmupTime\" : \"" + iterationNanos / 1_000_000 + " ms\",\n");
+			out.write("        \"measurementIterations\" : " + iterations + ",\n");
+			out.write("        \"measurementTime\" : \"" + iterationNanos / 1_000_000 + " ms\",\n");
+			if (!result.getParams().isEmpty()) {
+
+				out.write("        \"params\" : {\n");
+				int p = 0;
+				for (Map.Entry<String, String> param : result.getParams().entrySet()) {
+					out.write("            " + quote(param.getKey()) + " : " + quote(param.getValue())
+							+ (++p < result.getParams().size() ? ",\n" : "\n"));
+				}
+				out.write("        },\n");
+
+			}
+			double score = result.getScore();
+			double error = result.getError();
+			out.write("        \"primaryMetric\" : {\n");
+			out.write("            \"score\" : " + number(score) + ",\n");
+			out.write("            \"scoreError\" : " + number(error) + ",\n");
+			out.write("            \"scoreConfidence\" : [\n");
+			out.write("                " + number(score - error) + ",\n");
+			out.write("                " + number(score + error) + "\n");
+			out.write("            ],\n");
+			out.write("            \"scoreUnit\" : \"ops/s\",\n");
+			out.write("            \"rawData\" : [\n");
+			out.write("                [\n");
+			double[] scores = result.getScores();
+			for (int i = 0; i < scores.length; i++) {
+				out.write("                    " + number(scores[i]) + (i + 1 < scores.length ? ",\n" : "\n"));
+			}
+			out.write("                ]\n");
+			out.write("            ]\n");
+			out.write("        },\n");
+			out.write("        \"secondaryMetrics\" : {\n");
+			out.write("        }\n");
+			out.write(r + 1 < results.size() ? "    },\n" : "    }\n");
+
+		}
+		out.write("]\n");
+
+	}
+
+	// JSON has no NaN, JMH writes it as a string
+	private static String number(double value) {
+		return Double.isNaN(value) ? "\"NaN\"" : Double.toString(value);
+	}
+
+	private static String quote(String text) {
+
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : text.toCharArray()) {
+
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			}
+			else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int)c));
+			}
+			else {
+				quoted.append(c);
+			}
+
+		}
+		return quoted.append('"').toString();
+
+	}
+
+}
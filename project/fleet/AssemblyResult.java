@@ -0,0 +1,84 @@
+package project.fleet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the BatchAssembler did with one source file, with FullAssembler's
+ * error messages. A file that assembled can still have messages, for
+ * the addressing mode errors FullAssembler reports without failing.
+ */
+public class AssemblyResult {
+
+	public enum Outcome {
+		ASSEMBLED, UP_TO_DATE, FAILED
+	}
+
+	// the columns of toLines()
+	public static final String HEADER = "source\toutcome\tline\terror";
+
+	private String source;
+	private Outcome outcome;
+	private List<String> errors;
+
+	/**
+	 * @param errors the lines of the error text, "Error at line n: ..."
+	 * for errors in the source
+	 */
+	public AssemblyResult(String source, Outcome outcome, List<String> errors) {
+
+		this.source = source;
+		this.outcome = outcome;
+		this.errors = errors;
+
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * The tab separated lines of the report, one per error or a single
+	 * one with line 0 and no error. An error that is not about a line of
+	 * the source, like an unreadable file, has line 0.
+	 */
+	public List<String> toLines() {
+
+		List<String> lines = new ArrayList<>();
+		if (errors.isEmpty()) {
+			lines.add(source + "\t" + outcome + "\t0\t");
+		}
+		for (String error : errors) {
+
+			int line = 0;
+			String message = error;
+			int colon = error.indexOf(": ");
+			if (error.startsWith("Error at line ") && colon > 0) {
+				try {
+					line = Integer.parseInt(error.substring("Error at line ".length(), colon));
+					message = error.substring(colon + 2);
+				}
+				catch (NumberFormatException e) {
+					// not a line number after all, keep the whole text
+				}
+			}
+			lines.add(source + "\t" + outcome + "\t" + line + "\t" + message);
+
+		}
+		return lines;
+
+	}
+
+	public String toString() {
+		return "AssemblyResult (" + source + ", " + outcome + ", " + errors.size() + " errors)";
+	}
+
+}
@@ -0,0 +1,429 @@
+package project.fleet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import project.FullAssembler;
+import project.Pexe;
+import project.Program;
+
+/**
+ * Assembles many pasm files with FullAssembler on a fixed pool of
+ * workers. Each source under the base directory gets a .pexe of the same
+ * relative name, beside it or under an output directory. A source is
+ * skipped as up to date when its .pexe is strictly newer, or when its
+ * SHA-256 is the one recorded when the .pexe was written, which the
+ * MANIFEST file in the output directory keeps across runs along with the
+ * messages the source gave, so an up to date source reports them again.
+ * Files that fail keep no entry, so they are assembled, and their errors
+ * reported, every run.
+ */
+public class BatchAssembler {
+
+	static final String MANIFEST = ".pasm-hashes";
+
+	// what the manifest keeps of a source assembled without errors
+	private static final class Entry {
+
+		final String hash;
+		final List<String> messages;
+
+		Entry(String hash, List<String> messages) {
+
+			this.hash = hash;
+			this.messages = messages;
+
+		}
+
+	}
+
+	private int threads;
+	private File outputDirectory;
+	private boolean force;
+	private int pexeVersion = Pexe.VERSION_1;
+
+	public BatchAssembler(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Writes the .pexe files under directory, null (the default) for
+	 * beside their sources.
+	 */
+	public void setOutputDirectory(File directory) {
+		outputDirectory = directory;
+	}
+
+	/**
+	 * Assembles every source, up to date or not.
+	 */
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * Sets the pexe version written, see FullAssembler.setPexeVersion.
+	 * Files already up to date are not written again in the new version
+	 * unless force is set too.
+	 */
+	public void setPexeVersion(int version) {
+
+		Pexe.checkVersion(version);
+		pexeVersion = version;
+
+	}
+
+	/**
+	 * @param base the directory the sources' relative names start from
+	 * @return the results in the order of sources
+	 */
+	public List<AssemblyResult> assemble(File base, List<File> sources) throws IOException, InterruptedException {
+
+		File manifest = new File(outputDirectory != null ? outputDirectory : base, MANIFEST);
+		Map<String, Entry> entries = new ConcurrentHashMap<>(read(manifest));
+		Map<String, Entry> recorded = new TreeMap<>(entries);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		try {
+
+			List<Callable<AssemblyResult>> tasks = new ArrayList<>();
+			for (File source : sources) {
+				tasks.add(() -> assemble(base, source, recorded, entries));
+			}
+
+			List<AssemblyResult> results = new ArrayList<>();
+			for (Future<AssemblyResult> result : pool.invokeAll(tasks)) {
+				results.add(result.get());
+			}
+
+			write(manifest, entries);
+			return results;
+
+		}
+		catch (ExecutionException e) {
+			// assemble(File, File, ...) reports every failure in its result
+			throw new IllegalStateException(e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+	}
+
+	private AssemblyResult assemble(File base, File source, Map<String, Entry> recorded,
+			Map<String, Entry> entries) {
+
+		String name = base.toPath().relativize(source.toPath()).toString();
+		File output = output(base, name);
+		Entry entry = recorded.get(name);
+
+		try {
+
+			// an edit within one tick of the clock after the last assembly has the same time
+			if (!force && output.exists()
+					&& Files.getLastModifiedTime(output.toPath()).compareTo(Files.getLastModifiedTime(source.toPath())) > 0) {
+				return upToDate(name, entry);
+			}
+
+		}
+		catch (IOException e) {
+			// decided by the hash below
+		}
+
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(source.toPath());
+		}
+		catch (IOException e) {
+			entries.remove(name);
+			return new AssemblyResult(name, AssemblyResult.Outcome.FAILED, List.of("Unable to open the source file"));
+		}
+
+		String hash = hash(bytes);
+		if (!force && output.exists() && entry != null && hash.equals(entry.hash)) {
+
+			try {
+				// so the next run can tell from the times alone
+				Files.setLastModifiedTime(output.toPath(), FileTime.from(Instant.now()));
+			}
+			catch (IOException e) {
+				// only costs a hash next time
+			}
+			return upToDate(name, entry);
+
+		}
+
+		// decoded as FullAssembler decodes a file
+		StringBuilder error = new StringBuilder();
+		List<String> errors;
+		try {
+
+			Program program = new FullAssembler().assemble(new String(bytes, Charset.defaultCharset()), error);
+			errors = lines(error);
+			if (program == null) {
+				entries.remove(name);
+				return new AssemblyResult(name, AssemblyResult.Outcome.FAILED, errors);
+			}
+
+			output.getAbsoluteFile().getParentFile().mkdirs();
+			Pexe.write(output, program, pexeVersion);
+
+		}
+		catch (IOException e) {
+			entries.remove(name);
+			errors = lines(error);
+			errors.add("Unable to write " + output);
+			return new AssemblyResult(name, AssemblyResult.Outcome.FAILED, errors);
+		}
+		catch (NumberFormatException e) {
+			// an argument FullAssembler reports a mode error for, that is not hex either
+			entries.remove(name);
+			errors = lines(error);
+			errors.add(e.getMessage());
+			return new AssemblyResult(name, AssemblyResult.Outcome.FAILED, errors);
+		}
+
+		entries.put(name, new Entry(hash, errors));
+		return new AssemblyResult(name, AssemblyResult.Outcome.ASSEMBLED, errors);
+
+	}
+
+	// with the messages the source gave when it was assembled
+	private static AssemblyResult upToDate(String name, Entry entry) {
+		return new AssemblyResult(name, AssemblyResult.Outcome.UP_TO_DATE, entry != null ? entry.messages : List.of());
+	}
+
+	private File output(File base, String name) {
+
+		String pexe = (name.endsWith(".pasm") ? name.substring(0, name.length() - 5) : name) + ".pexe";
+		return new File(outputDirectory != null ? outputDirectory : base, pexe);
+
+	}
+
+	private static List<String> lines(StringBuilder error) {
+
+		List<String> lines = new ArrayList<>();
+		for (String line : error.toString().split("\n")) {
+			if (!line.isEmpty()) lines.add(line);
+		}
+		return lines;
+
+	}
+
+	private static String hash(byte[] bytes) {
+
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+
+	}
+
+	// the manifest is one "hash<tab>source name[<tab>message]..." line per source
+	private static Map<String, Entry> read(File manifest) throws IOException {
+
+		Map<String, Entry> entries = new TreeMap<>();
+		if (manifest.isFile()) {
+			for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+				String[] fields = line.split("\t");
+				if (fields.length >= 2 && !fields[0].isEmpty()) {
+					entries.put(fields[1], new Entry(fields[0], List.of(fields).subList(2, fields.length)));
+				}
+			}
+		}
+		return entries;
+
+	}
+
+	private static void write(File manifest, Map<String, Entry> entries) throws IOException {
+
+		manifest.getAbsoluteFile().getParentFile().mkdirs();
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+			StringBuilder line = new StringBuilder(entry.getValue().hash).append('\t').append(entry.getKey());
+			for (String message : entry.getValue().messages) {
+				line.append('\t').append(message);
+			}
+			lines.add(line.toString());
+		}
+		Files.write(manifest.toPath(), lines, StandardCharsets.UTF_8);
+
+	}
+
+	// the number of leading names of path before the first with a glob character
+	private static int plainNames(Path path) {
+
+		int names = 0;
+		while (names < path.getNameCount() && !path.getName(names).toString().matches(".*[*?\\[{].*")) {
+			names++;
+		}
+		return names;
+
+	}
+
+	/**
+	 * The directory a directory or glob starts from: the directory itself,
+	 * or the glob's leading names before any * ? [ or {.
+	 */
+	public static File base(String directoryOrGlob) {
+
+		File file = new File(directoryOrGlob);
+		if (file.isDirectory()) {
+			return file;
+		}
+
+		Path glob = Path.of(directoryOrGlob);
+		int names = plainNames(glob);
+		Path root = glob.getRoot();
+		if (names == 0) {
+			return root != null ? root.toFile() : new File(".");
+		}
+		Path base = glob.subpath(0, names);
+		return (root != null ? root.resolve(base) : base).toFile();
+
+	}
+
+	/**
+	 * @return the .pasm files in a directory, or the files matching a glob
+	 * like src/**&#47;*.pasm, sorted by name
+	 */
+	public static List<File> sources(String directoryOrGlob) throws IOException {
+
+		Path base = base(directoryOrGlob).toPath();
+		if (new File(directoryOrGlob).isDirectory()) {
+
+			File[] files = base.toFile().listFiles((dir, name) -> name.endsWith(".pasm"));
+			Arrays.sort(files);
+			return Arrays.asList(files);
+
+		}
+
+		Path glob = Path.of(directoryOrGlob);
+		int names = plainNames(glob);
+		if (names == glob.getNameCount()) {
+			// a plain file name
+			return Files.isRegularFile(glob) ? List.of(glob.toFile()) : List.of();
+		}
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.subpath(names, glob.getNameCount()));
+		try (Stream<Path> paths = Files.walk(base)) {
+			return paths.filter(path -> Files.isRegularFile(path) && matcher.matches(base.relativize(path)))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+
+	}
+
+	public static void write(List<AssemblyResult> results, PrintStream out) {
+
+		out.println(AssemblyResult.HEADER);
+		for (AssemblyResult result : results) {
+			for (String line : result.toLines()) {
+				out.println(line);
+			}
+		}
+
+	}
+
+	/**
+	 * Usage: BatchAssembler directory|glob [-out directory] [-threads n]
+	 * [-report file] [-force]. Quote a glob so the shell leaves it alone.
+	 * The report goes to standard output when no report file is given.
+	 * Exits with status 1 if any source failed.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		String source = null;
+		String output = null;
+		String reportFile = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean force = false;
+		int version = Pexe.VERSION_1;
+
+		for (int i = 0; i < args.length; i++) {
+
+			switch (args[i]) {
+			case "-out":
+				output = args[++i];
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-report":
+				reportFile = args[++i];
+				break;
+			case "-force":
+				force = true;
+				break;
+			case "-pexe":
+				version = Integer.parseInt(args[++i]);
+				break;
+			default:
+				source = args[i];
+			}
+
+		}
+
+		if (source == null) {
+			System.out.println("Usage: BatchAssembler directory|glob [-out directory] [-threads n] "
+					+ "[-report file] [-force] [-pexe 1|2]");
+			return;
+		}
+
+		BatchAssembler assembler = new BatchAssembler(threads);
+		if (output != null) assembler.setOutputDirectory(new File(output));
+		assembler.setForce(force);
+		assembler.setPexeVersion(version);
+		long start = System.nanoTime();
+		List<AssemblyResult> results = assembler.assemble(base(source), sources(source));
+		long millis = (System.nanoTime() - start) / 1_000_000;
+
+		if (reportFile == null) {
+			write(results, System.out);
+		}
+		else {
+			try (PrintStream out = new PrintStream(reportFile)) {
+				write(results, out);
+			}
+			Map<AssemblyResult.Outcome, Long> counts = results.stream()
+					.collect(Collectors.groupingBy(AssemblyResult::getOutcome, TreeMap::new, Collectors.counting()));
+			System.out.println(results.size() + " sources in " + millis + " ms on " + threads + " threads "
+					+ counts + ", report in " + reportFile);
+		}
+
+		if (results.stream().anyMatch(result -> result.getOutcome() == AssemblyResult.Outcome.FAILED)) {
+			System.exit(1);
+		}
+
+	}
+
+}
@@ -0,0 +1,115 @@
+package project.fleet;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchTester {
+
+	@TempDir
+	File dir;
+
+	private File source(String name, String text) throws IOException {
+		File file = new File(dir, name);
+		file.getParentFile().mkdirs();
+		Files.writeString(file.toPath(), text);
+		return file;
+	}
+
+	private List<AssemblyResult.Outcome> outcomes(List<AssemblyResult> results) {
+		List<AssemblyResult.Outcome> outcomes = new ArrayList<>();
+		for (AssemblyResult result : results) outcomes.add(result.getOutcome());
+		return outcomes;
+	}
+
+	@Test
+	// good sources are written, bad ones reported by line, and a second run skips the good ones
+	public void testDirectory() throws Exception {
+		source("a.pasm", "LOD 1\nHALT\n");
+		source("b.pasm", "LOD 1\nlod 2\nFOO\n");
+		source("c.pasm", "STO M1\nHALT\n");
+		File out = new File(dir, "out");
+		BatchAssembler assembler = new BatchAssembler(2);
+		assembler.setOutputDirectory(out);
+		List<AssemblyResult> results = assembler.assemble(dir, BatchAssembler.sources(dir.getPath()));
+		assertAll (
+				() -> assertEquals(List.of(AssemblyResult.Outcome.ASSEMBLED, AssemblyResult.Outcome.FAILED,
+						AssemblyResult.Outcome.ASSEMBLED), outcomes(results)),
+				() -> assertEquals(List.of("b.pasm\tFAILED\t2\tMnemonic not in all uppercase",
+						"b.pasm\tFAILED\t3\tInvalid mnemonic"), results.get(1).toLines()),
+				() -> assertEquals(List.of("c.pasm\tASSEMBLED\t1\tMnemonic does not allow immediate mode"),
+						results.get(2).toLines()),
+				() -> assertTrue(new File(out, "a.pexe").isFile()),
+				() -> assertFalse(new File(out, "b.pexe").exists())
+				);
+		List<AssemblyResult> again = assembler.assemble(dir, BatchAssembler.sources(dir.getPath()));
+		assertAll (
+				() -> assertEquals(List.of(AssemblyResult.Outcome.UP_TO_DATE, AssemblyResult.Outcome.FAILED,
+						AssemblyResult.Outcome.UP_TO_DATE), outcomes(again)),
+				// the messages of an up to date source are the ones it gave when it was assembled
+				() -> assertEquals(List.of("c.pasm\tUP_TO_DATE\t1\tMnemonic does not allow immediate mode"),
+						again.get(2).toLines())
+				);
+	}
+
+	@Test
+	// a pexe with the same time as its source may be older than an edit, so the hash decides
+	public void testSameTime() throws Exception {
+		File a = source("a.pasm", "LOD 1\nHALT\n");
+		BatchAssembler assembler = new BatchAssembler(1);
+		assembler.assemble(dir, List.of(a));
+		File pexe = new File(dir, "a.pexe");
+		FileTime time = Files.getLastModifiedTime(pexe.toPath());
+		Files.writeString(a.toPath(), "LOD 2\nHALT\n");
+		Files.setLastModifiedTime(a.toPath(), time);
+		assertEquals(List.of(AssemblyResult.Outcome.ASSEMBLED), outcomes(assembler.assemble(dir, List.of(a))));
+		Files.setLastModifiedTime(a.toPath(), Files.getLastModifiedTime(pexe.toPath()));
+		assertEquals(List.of(AssemblyResult.Outcome.UP_TO_DATE), outcomes(assembler.assemble(dir, List.of(a))));
+	}
+
+	@Test
+	// a source newer than its pexe is assembled again only if its contents changed
+	public void testHash() throws Exception {
+		File a = source("a.pasm", "LOD 1\nHALT\n");
+		File b = source("b.pasm", "LOD 2\nHALT\n");
+		BatchAssembler assembler = new BatchAssembler(1);
+		List<File> sources = List.of(a, b);
+		assembler.assemble(dir, sources);
+		FileTime later = FileTime.fromMillis(System.currentTimeMillis() + 60_000);
+		Files.setLastModifiedTime(a.toPath(), later);
+		Files.writeString(b.toPath(), "LOD 3\nHALT\n");
+		Files.setLastModifiedTime(b.toPath(), later);
+		assertEquals(List.of(AssemblyResult.Outcome.UP_TO_DATE, AssemblyResult.Outcome.ASSEMBLED),
+				outcomes(assembler.assemble(dir, sources)));
+		assembler.setForce(true);
+		assertEquals(List.of(AssemblyResult.Outcome.ASSEMBLED, AssemblyResult.Outcome.ASSEMBLED),
+				outcomes(assembler.assemble(dir, sources)));
+	}
+
+	@Test
+	// a glob finds sources in subdirectories, and their pexe files go beside them
+	public void testGlob() throws Exception {
+		source("x/one.pasm", "HALT\n");
+		source("x/y/two.pasm", "HALT\n");
+		source("x/y/notes.txt", "HALT\n");
+		String glob = dir.getPath() + "/x/**.pasm";
+		List<File> sources = BatchAssembler.sources(glob);
+		File base = BatchAssembler.base(glob);
+		assertEquals(new File(dir, "x"), base);
+		assertEquals(2, sources.size());
+		new BatchAssembler(2).assemble(base, sources);
+		assertTrue(new File(dir, "x/y/two.pexe").isFile());
+		assertTrue(new File(dir, "x/" + BatchAssembler.MANIFEST).isFile());
+	}
+
+}
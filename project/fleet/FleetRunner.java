@@ -0,0 +1,388 @@
+package project.fleet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import project.Loader;
+import project.ProgramCache;
+import project.Machine;
+import project.Memory;
+import project.Profile;
+import project.Status;
+
+/**
+ * Runs many independent pexe programs, each in its own Machine, on a
+ * work-stealing pool with one worker per core by default. Machines share
+ * nothing but the read-only instruction tables (and the compiled block
+ * cache when compilation is on), so throughput grows with the number of
+ * cores. Every program gets the same step budget and wall clock timeout,
+ * and the results come back in the order the programs were given.
+ */
+public class FleetRunner {
+
+	// instructions run between two checks of the timeout
+	private static final long SLICE = 1 << 16;
+	// the lines of a hotspot report
+	private static final int HOTSPOTS = 50;
+
+	private long stepBudget;
+	private long timeoutNanos;
+	private int threads;
+	private int compileThreshold;
+	private int dataSize = Memory.DATA_SIZE;
+	private int codeSize = Memory.CODE_SIZE;
+	private Memory.Backend backend = Memory.Backend.HEAP;
+	private ProgramCache cache;
+	private File profileDirectory;
+
+	/**
+	 * @param stepBudget the most instructions any one program may execute
+	 * @param timeoutMillis the most wall clock time any one program may
+	 * take, 0 or less for no timeout
+	 * @param threads the number of workers
+	 */
+	public FleetRunner(long stepBudget, long timeoutMillis, int threads) {
+
+		this.stepBudget = stepBudget;
+		this.timeoutNanos = timeoutMillis > 0 ? timeoutMillis * 1_000_000 : Long.MAX_VALUE;
+		this.threads = threads;
+
+	}
+
+	/**
+	 * Passed on to Machine.setCompileThreshold for every program. Off by
+	 * default, as most graded programs are too short to gain from it.
+	 */
+	public void setCompileThreshold(int threshold) {
+		compileThreshold = threshold;
+	}
+
+	/**
+	 * Sets the memory sizes of every Machine, Memory.DATA_SIZE and
+	 * Memory.CODE_SIZE by default.
+	 */
+	public void setMemorySize(int dataSize, int codeSize) {
+
+		this.dataSize = dataSize;
+		this.codeSize = codeSize;
+
+	}
+
+	/**
+	 * Where every Machine keeps its data, on the heap by default. Each
+	 * machine is closed when its program is done, so OFF_HEAP pages are
+	 * reused by the programs that follow.
+	 */
+	public void setBackend(Memory.Backend backend) {
+		this.backend = backend;
+	}
+
+	/**
+	 * Loads the programs through cache, for runs that give the same files
+	 * many times. Null, the default, reads and decodes every file.
+	 */
+	public void setProgramCache(ProgramCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Profiles every program that runs out of steps or time, see
+	 * Machine.setProfiling. Such a program is run again with profiling on
+	 * for the steps it executed, which takes longer than the first run,
+	 * and its name.hotspots and name.collapsed are written to directory.
+	 * Null, the default, profiles nothing.
+	 */
+	public void setProfileDirectory(File directory) {
+		profileDirectory = directory;
+	}
+
+	public List<ProgramResult> run(List<File> programs) throws InterruptedException {
+
+		ExecutorService pool = Executors.newWorkStealingPool(threads);
+
+		try {
+
+			List<Callable<ProgramResult>> tasks = new ArrayList<>();
+			for (File program : programs) {
+				tasks.add(() -> run(program));
+			}
+
+			List<ProgramResult> results = new ArrayList<>();
+			for (Future<ProgramResult> result : pool.invokeAll(tasks)) {
+				results.add(result.get());
+			}
+			return results;
+
+		}
+		catch (ExecutionException e) {
+			// run(File) reports every exception in its result, this is an Error
+			throw new IllegalStateException(e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * Loads and runs one program in a fresh Machine.
+	 */
+	public ProgramResult run(File program) {
+
+		Machine machine = new Machine(() -> {}, dataSize, codeSize, backend);
+		try {
+			return run(program.getName(), program, machine);
+		}
+		finally {
+			machine.close();
+		}
+
+	}
+
+	private ProgramResult run(String name, File program, Machine machine) {
+
+		machine.setCompileThreshold(compileThreshold);
+
+		String loaded;
+		try {
+			loaded = cache != null ? cache.load(machine, program) : Loader.load(machine, program);
+		}
+		catch (Exception e) {
+			return new ProgramResult(name, ProgramResult.Outcome.LOAD_ERROR, 0, 0, 0, 0, e.toString());
+		}
+		// Loader returns the instruction count, or a message when the file is missing
+		if (loaded.isEmpty() || !Character.isDigit(loaded.charAt(0))) {
+			return new ProgramResult(name, ProgramResult.Outcome.LOAD_ERROR, 0, 0, 0, 0, loaded);
+		}
+
+		long start = System.nanoTime();
+		long steps = 0;
+		int status = Status.RUNNING;
+		boolean timedOut = false;
+
+		try {
+
+			while (status == Status.RUNNING && steps < stepBudget && !timedOut) {
+
+				status = machine.tryRun(Math.min(SLICE, stepBudget - steps));
+				steps += machine.getExecuted();
+				timedOut = System.nanoTime() - start > timeoutNanos;
+
+			}
+
+		}
+		catch (RuntimeException e) {
+			// a bug in the machine fails this program, not the batch
+			return new ProgramResult(name, ProgramResult.Outcome.FAULT, steps, machine.getPC(), machine.getAccum(),
+					digest(machine), e.toString());
+		}
+
+		ProgramResult.Outcome outcome;
+		String detail = "";
+
+		if (status == Status.HALTED) {
+			outcome = ProgramResult.Outcome.HALTED;
+		}
+		else if (Status.isFault(status)) {
+			outcome = ProgramResult.Outcome.FAULT;
+			detail = Status.name(status);
+		}
+		else if (steps >= stepBudget) {
+			outcome = ProgramResult.Outcome.STEP_LIMIT;
+		}
+		else {
+			outcome = ProgramResult.Outcome.TIMEOUT;
+		}
+
+		if (profileDirectory != null && (outcome == ProgramResult.Outcome.STEP_LIMIT
+				|| outcome == ProgramResult.Outcome.TIMEOUT)) {
+			detail = profile(name, program, steps);
+		}
+
+		return new ProgramResult(name, outcome, steps, machine.getPC(), machine.getAccum(),
+				digest(machine), detail);
+
+	}
+
+	/**
+	 * Runs program again for steps with profiling on and writes where
+	 * the time went.
+	 * @return the detail for the result, empty unless the profile failed
+	 */
+	private String profile(String name, File program, long steps) {
+
+		Machine machine = new Machine(() -> {}, dataSize, codeSize, backend);
+		try {
+
+			machine.setProfiling(true);
+			if (cache != null) cache.load(machine, program);
+			else Loader.load(machine, program);
+			machine.tryRun(steps);
+			Profile profile = machine.getProfile();
+
+			profileDirectory.mkdirs();
+			try (PrintStream out = new PrintStream(new File(profileDirectory, name + ".hotspots"))) {
+				profile.writeHotspots(out, HOTSPOTS);
+				out.println();
+				profile.writeOpcodes(out);
+			}
+			try (PrintStream out = new PrintStream(new File(profileDirectory, name + ".collapsed"))) {
+				profile.writeCollapsed(out, name);
+			}
+			return "";
+
+		}
+		catch (Exception e) {
+			return "No profile: " + e;
+		}
+		finally {
+			machine.close();
+		}
+
+	}
+
+	// FNV-1a over the data memory
+	static long digest(Machine machine) {
+
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < machine.getDataSize(); i++) {
+			hash = (hash ^ machine.getData(i)) * 0x100000001b3L;
+		}
+		return hash;
+
+	}
+
+	/**
+	 * @return the .pexe files in directory, sorted by name
+	 */
+	public static List<File> programs(File directory) throws IOException {
+
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".pexe"));
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		Arrays.sort(files);
+		return Arrays.asList(files);
+
+	}
+
+	public static void write(List<ProgramResult> results, PrintStream out) {
+
+		out.println(ProgramResult.HEADER);
+		for (ProgramResult result : results) {
+			out.println(result.toLine());
+		}
+
+	}
+
+	/**
+	 * Usage: FleetRunner directory|- [results file] [-steps n] [-timeout ms]
+	 * [-threads n] [-compile n] [-data cells] [-code instructions]
+	 * [-offheap] [-cache MB] [-profile directory]. With - the program
+	 * paths are read from standard input, one per line. The results go to
+	 * standard output when no results file is given.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		String source = null;
+		String resultsFile = null;
+		long steps = 10_000_000;
+		long timeout = 10_000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int compile = 0;
+		int dataSize = Memory.DATA_SIZE;
+		int codeSize = Memory.CODE_SIZE;
+		Memory.Backend backend = Memory.Backend.HEAP;
+		long cacheBytes = 0;
+		String profile = null;
+
+		for (int i = 0; i < args.length; i++) {
+
+			switch (args[i]) {
+			case "-steps":
+				steps = Long.parseLong(args[++i]);
+				break;
+			case "-timeout":
+				timeout = Long.parseLong(args[++i]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-compile":
+				compile = Integer.parseInt(args[++i]);
+				break;
+			case "-data":
+				dataSize = Integer.parseInt(args[++i]);
+				break;
+			case "-code":
+				codeSize = Integer.parseInt(args[++i]);
+				break;
+			case "-offheap":
+				backend = Memory.Backend.OFF_HEAP;
+				break;
+			case "-cache":
+				cacheBytes = Long.parseLong(args[++i]) << 20;
+				break;
+			case "-profile":
+				profile = args[++i];
+				break;
+			default:
+				if (source == null) source = args[i];
+				else resultsFile = args[i];
+			}
+
+		}
+
+		if (source == null) {
+			System.out.println("Usage: FleetRunner directory|- [results file] [-steps n] "
+					+ "[-timeout ms] [-threads n] [-compile n] [-data cells] [-code instructions] [-offheap] [-cache MB] [-profile directory]");
+			return;
+		}
+
+		List<File> programs = new ArrayList<>();
+		if (source.equals("-")) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isBlank()) programs.add(new File(line.trim()));
+			}
+		}
+		else {
+			programs = programs(new File(source));
+		}
+
+		FleetRunner runner = new FleetRunner(steps, timeout, threads);
+		runner.setCompileThreshold(compile);
+		runner.setMemorySize(dataSize, codeSize);
+		runner.setBackend(backend);
+		if (cacheBytes > 0) runner.setProgramCache(new ProgramCache(cacheBytes));
+		if (profile != null) runner.setProfileDirectory(new File(profile));
+		long start = System.nanoTime();
+		List<ProgramResult> results = runner.run(programs);
+		long millis = (System.nanoTime() - start) / 1_000_000;
+
+		if (resultsFile == null) {
+			write(results, System.out);
+		}
+		else {
+			try (PrintStream out = new PrintStream(resultsFile)) {
+				write(results, out);
+			}
+			System.out.println(results.size() + " programs in " + millis + " ms on "
+					+ threads + " threads, results in " + resultsFile);
+		}
+
+	}
+
+}
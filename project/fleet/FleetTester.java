@@ -0,0 +1,94 @@
+package project.fleet;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FleetTester {
+
+	@TempDir
+	File dir;
+
+	// writes a pexe file: opcode and arg pairs, -1, then data address and value pairs, -1 -1
+	private File pexe(String name, int[] code, int[] data) throws IOException {
+		File file = new File(dir, name);
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			for (int i : code) out.writeInt(i);
+			out.writeInt(-1);
+			for (int i : data) out.writeInt(i);
+			out.writeInt(-1);
+			out.writeInt(-1);
+		}
+		return file;
+	}
+
+	// Assembled opcodes with parity: LOD M = 0b00101011, ADD M = 0b01010011,
+	// STO = 0b00110000, HALT = 0b00010001, DIV = 0b01101001, JUMP M = 0b00011011
+	private File halting() throws IOException {
+		return pexe("halting.pexe", new int[] {0b00101011, 6, 0b01010011, 7, 0b00110000, 3, 0b00010001, 0},
+				new int[] {1, 42});
+	}
+
+	@Test
+	// every kind of outcome, in the order the programs were given
+	public void testOutcomes() throws Exception {
+		List<File> programs = new ArrayList<>();
+		programs.add(halting());
+		programs.add(pexe("divide.pexe", new int[] {0b01101001, 0}, new int[0]));
+		programs.add(pexe("loop.pexe", new int[] {0b00011011, 0}, new int[0]));
+		programs.add(new File(dir, "missing.pexe"));
+		List<ProgramResult> results = new FleetRunner(1000, 0, 2).run(programs);
+		assertAll (
+				() -> assertEquals(ProgramResult.Outcome.HALTED, results.get(0).getOutcome()),
+				() -> assertEquals(13, results.get(0).getAccum()),
+				() -> assertEquals(4, results.get(0).getSteps()),
+				() -> assertEquals(ProgramResult.Outcome.FAULT, results.get(1).getOutcome()),
+				() -> assertEquals("DIVIDE_BY_ZERO", results.get(1).getDetail()),
+				() -> assertEquals(ProgramResult.Outcome.STEP_LIMIT, results.get(2).getOutcome()),
+				() -> assertEquals(1000, results.get(2).getSteps()),
+				() -> assertEquals(ProgramResult.Outcome.LOAD_ERROR, results.get(3).getOutcome())
+				);
+	}
+
+	@Test
+	// a program gives the same result however many run beside it
+	public void testSameResultInParallel() throws Exception {
+		File program = halting();
+		ProgramResult alone = new FleetRunner(1000, 0, 1).run(program);
+		List<File> programs = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			programs.add(program);
+		}
+		for (ProgramResult result : new FleetRunner(1000, 0, 4).run(programs)) {
+			assertEquals(alone.toLine(), result.toLine());
+		}
+	}
+
+	@Test
+	// a program that runs out of steps is profiled, one that halts is not
+	public void testProfile() throws Exception {
+		File profiles = new File(dir, "profiles");
+		FleetRunner runner = new FleetRunner(1000, 0, 1);
+		runner.setProfileDirectory(profiles);
+		runner.run(List.of(halting(), pexe("loop.pexe", new int[] {0b00011011, 0}, new int[0])));
+		assertAll (
+				() -> assertFalse(new File(profiles, "halting.pexe.hotspots").exists()),
+				() -> assertTrue(Files.readString(new File(profiles, "loop.pexe.hotspots").toPath())
+						.contains("0\t1000\t100.00\tJUMP  M0\t")),
+				() -> assertEquals("loop.pexe;block 0;0 JUMP  M0 1000",
+						Files.readString(new File(profiles, "loop.pexe.collapsed").toPath()).trim())
+				);
+	}
+
+}
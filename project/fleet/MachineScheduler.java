@@ -0,0 +1,114 @@
+package project.fleet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import project.Machine;
+
+/**
+ * Hosts many live machines on a few carrier threads. Each carrier takes
+ * the machine at the head of a shared run queue, runs one quantum of
+ * instructions through Machine.tryRun and puts it back at the tail, so
+ * every runnable machine gets the same share of the carriers however
+ * long it runs. A machine stuck in a loop costs its quanta and nothing
+ * more. A hosted machine is only an entry in the queue, not a thread, so
+ * tens of thousands of them are cheap. The HaltCallback of a hosted
+ * machine is not called; watch the ScheduledMachine state instead.
+ */
+public class MachineScheduler {
+
+	private LinkedBlockingQueue<ScheduledMachine> runQueue = new LinkedBlockingQueue<>();
+	private List<Thread> carriers = new ArrayList<>();
+	private long quantum;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param carriers the number of carrier threads
+	 * @param quantum the number of instructions a machine runs before
+	 * it goes back to the end of the queue
+	 */
+	public MachineScheduler(int carriers, long quantum) {
+
+		this.quantum = quantum;
+		for (int i = 0; i < carriers; i++) {
+
+			Thread carrier = new Thread(this::carry, "machine-carrier-" + i);
+			carrier.setDaemon(true);
+			this.carriers.add(carrier);
+			carrier.start();
+
+		}
+
+	}
+
+	/**
+	 * Starts running machine from its current PC.
+	 */
+	public ScheduledMachine submit(Machine machine) {
+
+		ScheduledMachine scheduled = new ScheduledMachine(machine, this);
+		enqueue(scheduled);
+		return scheduled;
+
+	}
+
+	/**
+	 * @return the number of machines waiting for a carrier
+	 */
+	public int getQueueLength() {
+		return runQueue.size();
+	}
+
+	/**
+	 * Stops the carriers. Machines still in the queue stay RUNNABLE and
+	 * are never run.
+	 */
+	public void shutdown() {
+
+		shutdown = true;
+		for (Thread carrier : carriers) {
+			carrier.interrupt();
+		}
+
+	}
+
+	void enqueue(ScheduledMachine scheduled) {
+		runQueue.add(scheduled);
+	}
+
+	private void carry() {
+
+		while (!shutdown) {
+
+			ScheduledMachine next;
+			try {
+				next = runQueue.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+
+			if (next.begin()) {
+
+				Machine machine = next.getMachine();
+				int status;
+				try {
+					status = machine.tryRun(quantum);
+				}
+				catch (RuntimeException e) {
+					// only this machine fails, the carrier goes on with the others
+					next.fail(e, machine.getExecuted());
+					continue;
+				}
+				if (next.end(status, machine.getExecuted())) {
+					runQueue.add(next);
+				}
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+package project.fleet;
+
+/**
+ * The final state of one program run by the FleetRunner. The data digest
+ * is a 64 bit hash of the whole data memory, enough to compare a run
+ * against a reference without storing the memory.
+ */
+public class ProgramResult {
+
+	public enum Outcome {
+		HALTED, STEP_LIMIT, TIMEOUT, FAULT, LOAD_ERROR
+	}
+
+	// the columns of toLine()
+	public static final String HEADER = "program\toutcome\tsteps\tpc\taccum\tdata\tdetail";
+
+	private String program;
+	private Outcome outcome;
+	private long steps;
+	private int pc;
+	private int accum;
+	private long dataDigest;
+	private String detail;
+
+	public ProgramResult(String program, Outcome outcome, long steps, int pc, int accum,
+			long dataDigest, String detail) {
+
+		this.program = program;
+		this.outcome = outcome;
+		this.steps = steps;
+		this.pc = pc;
+		this.accum = accum;
+		this.dataDigest = dataDigest;
+		this.detail = detail;
+
+	}
+
+	public String getProgram() {
+		return program;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getAccum() {
+		return accum;
+	}
+
+	public long getDataDigest() {
+		return dataDigest;
+	}
+
+	/**
+	 * @return the Status name of a FAULT, the message of a LOAD_ERROR,
+	 * otherwise an empty string
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	/**
+	 * One tab separated line of the results file.
+	 */
+	public String toLine() {
+		return program + "\t" + outcome + "\t" + steps + "\t" + pc + "\t" + accum + "\t"
+				+ String.format("%016x", dataDigest) + "\t" + detail;
+	}
+
+	public String toString() {
+		return "ProgramResult (" + program + ", " + outcome + ", steps " + steps + ", pc " + pc + ")";
+	}
+
+}
@@ -0,0 +1,185 @@
+package project.fleet;
+
+import project.Machine;
+import project.Status;
+
+/**
+ * A Machine hosted by a MachineScheduler. The scheduler runs it one
+ * quantum at a time, so it can be paused, resumed or killed between
+ * quanta from any thread. The Machine itself should not be touched
+ * while it is RUNNABLE.
+ */
+public class ScheduledMachine {
+
+	public enum State {
+		RUNNABLE, PAUSED, HALTED, FAULTED, KILLED
+	}
+
+	private Machine machine;
+	private MachineScheduler scheduler;
+	private State state = State.RUNNABLE;
+	private boolean queued = true; // in the run queue or running a quantum
+	private boolean pauseRequested;
+	private boolean killRequested;
+	private int status = Status.RUNNING;
+	private long steps;
+	private RuntimeException fault;
+
+	ScheduledMachine(Machine machine, MachineScheduler scheduler) {
+
+		this.machine = machine;
+		this.scheduler = scheduler;
+
+	}
+
+	public Machine getMachine() {
+		return machine;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the Status of the last quantum, a fault status once FAULTED
+	 */
+	public synchronized int getStatus() {
+		return status;
+	}
+
+	public synchronized long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return the exception the machine threw, which made it FAULTED,
+	 * null if it threw none
+	 */
+	public synchronized RuntimeException getFault() {
+		return fault;
+	}
+
+	/**
+	 * Stops the machine after its current quantum.
+	 */
+	public synchronized void pause() {
+
+		if (state == State.RUNNABLE) {
+			pauseRequested = true;
+		}
+
+	}
+
+	public synchronized void resume() {
+
+		pauseRequested = false;
+		if (state == State.PAUSED) {
+
+			state = State.RUNNABLE;
+			if (!queued) {
+				queued = true;
+				scheduler.enqueue(this);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Stops the machine for good after its current quantum.
+	 */
+	public synchronized void kill() {
+
+		killRequested = true;
+		if (!queued && state == State.PAUSED) {
+			finish(State.KILLED);
+		}
+
+	}
+
+	/**
+	 * Waits until the machine halts, faults or is killed.
+	 * @return false if millis passed first
+	 */
+	public synchronized boolean await(long millis) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + millis;
+		while (!isDone()) {
+
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0) return false;
+			wait(left);
+
+		}
+		return true;
+
+	}
+
+	public synchronized boolean isDone() {
+		return state == State.HALTED || state == State.FAULTED || state == State.KILLED;
+	}
+
+	// called by a carrier before a quantum, false if the machine must not run
+	synchronized boolean begin() {
+
+		if (killRequested) {
+			finish(State.KILLED);
+			return false;
+		}
+		if (pauseRequested) {
+			park();
+			return false;
+		}
+		return true;
+
+	}
+
+	// called by a carrier after a quantum, true if the machine goes back in the queue
+	synchronized boolean end(int status, long executed) {
+
+		this.status = status;
+		steps += executed;
+
+		if (status == Status.HALTED) {
+			finish(State.HALTED);
+		}
+		else if (Status.isFault(status)) {
+			finish(State.FAULTED);
+		}
+		else if (killRequested) {
+			finish(State.KILLED);
+		}
+		else if (pauseRequested) {
+			park();
+		}
+		return queued;
+
+	}
+
+	// called by a carrier when the quantum threw, the machine is FAULTED
+	synchronized void fail(RuntimeException fault, long executed) {
+
+		this.fault = fault;
+		steps += executed;
+		finish(State.FAULTED);
+
+	}
+
+	private void park() {
+
+		pauseRequested = false;
+		queued = false;
+		state = State.PAUSED;
+		notifyAll();
+
+	}
+
+	private void finish(State state) {
+
+		queued = false;
+		this.state = state;
+		notifyAll();
+
+	}
+
+}
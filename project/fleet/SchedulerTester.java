@@ -0,0 +1,101 @@
+package project.fleet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import project.Instruction;
+import project.Machine;
+import project.Memory;
+
+public class SchedulerTester {
+
+	MachineScheduler scheduler = new MachineScheduler(1, 100);
+
+	@AfterEach
+	public void shutdown() {
+		scheduler.shutdown();
+	}
+
+	// JUMP M0 forever
+	private Machine loop() {
+		Machine m = new Machine(() -> {});
+		m.addCode(new Instruction((byte)0b00011011, 0));
+		return m;
+	}
+
+	// counts 1000 down to 0 and halts
+	private Machine countdown() {
+		Machine m = new Machine(() -> {});
+		m.addCode(new Instruction((byte)0b00101011, 1000)); // 0: LOD M1000
+		m.addCode(new Instruction((byte)0b01011010, 1));    // 1: SUB M1
+		m.addCode(new Instruction((byte)0b00100010, 4));    // 2: JMPZ M4
+		m.addCode(new Instruction((byte)0b00011011, 1));    // 3: JUMP M1
+		m.addCode(new Instruction((byte)0b00010001, 0));    // 4: HALT
+		return m;
+	}
+
+	@Test
+	// a halting program finishes while a thousand infinite loops share its carrier
+	public void testLoopsDoNotStarve() throws Exception {
+		List<ScheduledMachine> loops = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			loops.add(scheduler.submit(loop()));
+		}
+		ScheduledMachine countdown = scheduler.submit(countdown());
+		assertTrue(countdown.await(10_000), "countdown finished");
+		assertEquals(ScheduledMachine.State.HALTED, countdown.getState());
+		assertEquals(0, countdown.getMachine().getAccum());
+		for (ScheduledMachine loop : loops) {
+			loop.kill();
+		}
+		for (ScheduledMachine loop : loops) {
+			assertTrue(loop.await(10_000));
+			assertEquals(ScheduledMachine.State.KILLED, loop.getState());
+		}
+	}
+
+	@Test
+	// a paused machine stops between quanta and carries on when resumed
+	public void testPauseResume() throws Exception {
+		ScheduledMachine loop = scheduler.submit(loop());
+		loop.pause();
+		while (loop.getState() != ScheduledMachine.State.PAUSED) {
+			Thread.sleep(1);
+		}
+		long steps = loop.getSteps();
+		assertEquals(0, steps % 100, "paused on a quantum boundary");
+		Thread.sleep(20);
+		assertEquals(steps, loop.getSteps());
+		loop.resume();
+		while (loop.getSteps() == steps) {
+			Thread.sleep(1);
+		}
+		loop.kill();
+		assertTrue(loop.await(10_000));
+		assertEquals(ScheduledMachine.State.KILLED, loop.getState());
+	}
+
+	@Test
+	// a machine that throws is FAULTED with its exception, and its carrier goes on to run the next
+	public void testThrowingMachine() throws Exception {
+		// a closed off-heap machine throws when it writes a page
+		Machine closed = new Machine(() -> {}, Memory.DATA_SIZE, Memory.CODE_SIZE, Memory.Backend.OFF_HEAP);
+		closed.addCode(new Instruction((byte)0b00110000, 0)); // STO 0
+		closed.close();
+		ScheduledMachine thrower = scheduler.submit(closed);
+		assertTrue(thrower.await(10_000));
+		assertEquals(ScheduledMachine.State.FAULTED, thrower.getState());
+		assertTrue(thrower.getFault() instanceof IllegalStateException);
+		ScheduledMachine countdown = scheduler.submit(countdown());
+		assertTrue(countdown.await(10_000), "countdown finished on the same carrier");
+		assertEquals(ScheduledMachine.State.HALTED, countdown.getState());
+		assertNull(countdown.getFault());
+	}
+
+}
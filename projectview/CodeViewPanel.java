@@ -2,7 +2,9 @@ package projectview;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.GridLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.io.File;
 
@@ -13,117 +15,166 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
-import javax.swing.JTextField;
+import javax.swing.JTable;
 import javax.swing.border.Border;
 import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
 
 import project.Instruction;
 import project.Loader;
 import project.Machine;
-import project.Memory;
 
+/**
+ * Shows code memory in a JTable. update() copies the visible rows' text
+ * while the machine is locked, and the table model paints from that copy,
+ * so only the visible rows cost anything and a paint never reads the
+ * machine while the ExecutionEngine runs it.
+ */
 public class CodeViewPanel {
 
 	private Machine machine;
-	private Instruction instr;
 	private JScrollPane scroller;
-	private JTextField[] codeText = new JTextField[Memory.CODE_SIZE];
-	private JTextField[] codeBinHex = new JTextField[Memory.CODE_SIZE];
+	private JTable table;
+	private CodeModel model = new CodeModel();
 	private int previousColor = -1;
-	
+	// the text and bits of rows [cacheFirst, cacheFirst + cache.length), as read under the machine's lock
+	private int cacheFirst;
+	private String[][] cache = new String[0][];
+
 	public CodeViewPanel(Machine m) {
-		
+
 		machine = m;
-		
+
 	}
-	
+
 	public JComponent createCodeDisplay() {
-		
+
 		JPanel panel = new JPanel();
-		
+
 		panel.setLayout(new BorderLayout());
-		
+
 		Border border = BorderFactory.createTitledBorder(
 		        BorderFactory.createLineBorder(Color.BLACK),
 		        "Code Memory View",
 		        TitledBorder.CENTER, TitledBorder.DEFAULT_POSITION);
-		
+
 		panel.setBorder(border);
-		
-		
-		JPanel innerPanel = new JPanel();
-		
-		innerPanel.setLayout(new BorderLayout());
-		
-		JPanel numPanel = new JPanel();
-		JPanel textPanel = new JPanel();
-		JPanel hexPanel = new JPanel();
-		
-		numPanel.setLayout(new GridLayout(0,1));
-		textPanel.setLayout(new GridLayout(0,1));
-		hexPanel.setLayout(new GridLayout(0,1));
-		
-		innerPanel.add(numPanel, BorderLayout.LINE_START);
-		innerPanel.add(textPanel, BorderLayout.CENTER); 
-		innerPanel.add(hexPanel, BorderLayout.LINE_END);
-		
-		
-		for (int i = 0; i < Memory.CODE_SIZE; i++) {
-			
-			numPanel.add(new JLabel(i+": ", JLabel.RIGHT));
-			codeText[i] = new JTextField(10);
-			codeBinHex[i] = new JTextField(12);
-			textPanel.add(codeText[i]); 
-			hexPanel.add(codeBinHex[i]);
-			
-		}
-		
-		scroller = new JScrollPane(innerPanel);
+
+		table = new JTable(model);
+		table.setTableHeader(null);
+		table.setCellSelectionEnabled(false);
+		table.setFocusable(false);
+		table.setDefaultRenderer(Object.class, new HighlightRenderer());
+		table.getColumnModel().getColumn(0).setPreferredWidth(50);
+		table.getColumnModel().getColumn(1).setPreferredWidth(100);
+		table.getColumnModel().getColumn(2).setPreferredWidth(120);
+		table.setPreferredScrollableViewportSize(new Dimension(270, 400));
+
+		scroller = new JScrollPane(table);
 		panel.add(scroller);
 		return panel;
-		
+
 	}
-	
+
 	public void update(String arg) {
-		if("Load Code".equals(arg)) {
-			for(int i = 0; i < machine.getProgramSize(); i++) {
-				instr = machine.getCode(i);
-				codeText[i].setText(instr.getText());
-				codeBinHex[i].setText(instr.getBinHex());
-			}	
-			previousColor = machine.getPC();			
-			codeBinHex[previousColor].setBackground(Color.YELLOW);
-			codeText[previousColor].setBackground(Color.YELLOW);
-		} else if("Clear".equals(arg)) {
-			for(int i = 0; i < Memory.CODE_SIZE; i++) {
-				codeText[i].setText("");
-				codeBinHex[i].setText("");
-			}	
-			if(previousColor >= 0 && previousColor < Memory.CODE_SIZE) {
-				codeText[previousColor].setBackground(Color.WHITE);
-				codeBinHex[previousColor].setBackground(Color.WHITE);
-			}
+		if("Load Code".equals(arg) || "Clear".equals(arg)) {
 			previousColor = -1;
-		}		
-		if(this.previousColor >= 0 && previousColor < Memory.CODE_SIZE) {
-			codeText[previousColor].setBackground(Color.WHITE);
-			codeBinHex[previousColor].setBackground(Color.WHITE);
+			model.fireTableDataChanged();
 		}
+		int old = previousColor;
 		previousColor = machine.getPC();
-		if(this.previousColor >= 0 && previousColor < Memory.CODE_SIZE) {
-			codeText[previousColor].setBackground(Color.YELLOW);
-			codeBinHex[previousColor].setBackground(Color.YELLOW);
-		} 
-		if(scroller != null && instr != null && machine!= null) {
+		if(old != previousColor) {
+			if(old >= 0 && old < machine.getCodeSize())
+				model.fireTableRowsUpdated(old, old);
+			if(previousColor >= 0 && previousColor < machine.getCodeSize())
+				model.fireTableRowsUpdated(previousColor, previousColor);
+		}
+		if(scroller != null && machine.getProgramSize() > 0) {
 			JScrollBar bar= scroller.getVerticalScrollBar();
 			int pc = machine.getPC();
-			if(pc >= 0 && pc < Memory.CODE_SIZE && codeBinHex[pc] != null) { 
-				Rectangle bounds = codeBinHex[pc].getBounds();
+			if(pc >= 0 && pc < machine.getCodeSize()) {
+				Rectangle bounds = table.getCellRect(pc, 1, true);
 				bar.setValue(Math.max(0, bounds.y - 15*bounds.height));
 			}
 		}
+		if(table != null) {
+			cacheView(-1);
+		}
+	}
+
+	// copies the rows in view, and row if it is not, under the machine's lock;
+	// the EDT only waits for the end of the engine's current slice
+	private void cacheView(int row) {
+		Rectangle view = scroller.getViewport().getViewRect();
+		int first = table.rowAtPoint(new Point(0, view.y));
+		int last = table.rowAtPoint(new Point(0, view.y + view.height - 1));
+		if(last < 0) last = model.getRowCount() - 1;
+		if(first < 0 || view.height <= 0) {
+			// nothing in view, so the rows cached already are read again
+			first = row >= 0 ? row : cache.length > 0 ? cacheFirst : -1;
+			last = row >= 0 ? row : cacheFirst + cache.length - 1;
+		}
+		if(row >= 0) {
+			first = Math.min(first, row);
+			last = Math.max(last, row);
+		}
+		if(first < 0) return;
+		synchronized(machine) {
+			if(cache.length != last - first + 1) cache = new String[last - first + 1][];
+			cacheFirst = first;
+			for(int k = 0; k < cache.length; k++) {
+				if(first + k >= machine.getProgramSize()) {
+					cache[k] = new String[] {"", ""};
+				} else {
+					Instruction instr = machine.getCode(first + k);
+					cache[k] = new String[] {instr.getText(), instr.getBinHex()};
+				}
+			}
+		}
+	}
+
+	private class CodeModel extends AbstractTableModel {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public int getRowCount() {
+			return machine.getCodeSize();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return 3;
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			if(column == 0)
+				return row + ": ";
+			// a row scrolled into view since the last update is read then
+			if(row < cacheFirst || row >= cacheFirst + cache.length)
+				cacheView(row);
+			return cache[row - cacheFirst][column - 1];
+		}
+
+	}
+
+	private class HighlightRenderer extends DefaultTableCellRenderer {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Component getTableCellRendererComponent(JTable table, Object value,
+				boolean isSelected, boolean hasFocus, int row, int column) {
+			super.getTableCellRendererComponent(table, value, false, false, row, column);
+			setHorizontalAlignment(column == 0 ? JLabel.RIGHT : JLabel.LEFT);
+			setBackground(column != 0 && row == previousColor ? Color.YELLOW : Color.WHITE);
+			return this;
+		}
+
 	}
-	
+
 	public static void main(String[] args) throws Exception {
 		Machine machine = new Machine(()->System.exit(0));
 		CodeViewPanel panel = new CodeViewPanel(machine);
@@ -136,5 +187,5 @@ public class CodeViewPanel {
 		System.out.println(Loader.load(machine, new File("factorial.pexe")));
 		panel.update("Load Code");
 	}
-	
+
 }
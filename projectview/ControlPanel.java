@@ -15,6 +15,7 @@ public class ControlPanel {
 	private JButton clearButton = new JButton("Clear");
 	private JButton runButton = new JButton("Run/Pause");
 	private JButton reloadButton = new JButton("Reload");
+	private JButton stopButton = new JButton("Stop");
 	
 	public ControlPanel(Mediator m) {
 		
@@ -43,6 +44,10 @@ public class ControlPanel {
 		reloadButton.addActionListener(e -> mediator.reload());
 		panel.add(reloadButton);
 		
+		stopButton.setBackground(Color.WHITE);
+		stopButton.addActionListener(e -> mediator.stop());
+		panel.add(stopButton);
+		
 		JSlider slider = new JSlider(5,1000);
 		slider.addChangeListener(e -> mediator.setPeriod(slider.getValue())); 
 		// put a void method setPeriod(int value) in Mediator, we will complete it later
@@ -57,6 +62,7 @@ public class ControlPanel {
 		stepButton.setEnabled(mediator.getCurrentState().getStepActive());
 		clearButton.setEnabled(mediator.getCurrentState().getClearActive());
 		reloadButton.setEnabled(mediator.getCurrentState().getReloadActive());		
+		stopButton.setEnabled(mediator.getCurrentState().getStopActive());
 	}
 	
 }
@@ -0,0 +1,88 @@
+package projectview;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+import project.Machine;
+import project.Status;
+
+/**
+ * Runs the machine for Mediator.execute() on a background thread, so a
+ * long or endless program no longer freezes the window. The machine runs
+ * in slices of SLICE instructions at full speed while holding its lock.
+ * At most FRAME_RATE times a second the views are updated on the EDT
+ * under the same lock: the processor view sets its text, and the code and
+ * memory views copy their visible rows, which the tables paint from later.
+ * So each frame shows the state between two slices. A row scrolled into
+ * view while the machine runs is copied when it is first painted, also
+ * under the lock, so it may come from a later slice than the rest.
+ * stop() takes effect at the end of the current slice.
+ */
+class ExecutionEngine {
+
+	private static final int FRAME_RATE = 30;
+	private static final long SLICE = 1 << 14;
+
+	private Mediator mediator;
+	private Thread thread;
+	private volatile boolean stopRequested;
+	private AtomicBoolean framePending = new AtomicBoolean();
+
+	ExecutionEngine(Mediator m) {
+		mediator = m;
+	}
+
+	// called on the EDT
+	void start(Machine machine) {
+
+		if (isRunning()) return;
+		stopRequested = false;
+		thread = new Thread(() -> run(machine), "execution-engine");
+		thread.setDaemon(true);
+		thread.start();
+
+	}
+
+	void stop() {
+		stopRequested = true;
+	}
+
+	boolean isRunning() {
+		return thread != null && thread.isAlive();
+	}
+
+	private void run(Machine machine) {
+
+		long framePeriod = 1_000_000_000L / FRAME_RATE;
+		long lastFrame = System.nanoTime();
+		int status = Status.RUNNING;
+
+		while (status == Status.RUNNING && !stopRequested) {
+
+			synchronized (machine) {
+				status = machine.tryRun(SLICE);
+			}
+
+			long now = System.nanoTime();
+			// skip a frame rather than queue one behind a busy EDT
+			if (now - lastFrame >= framePeriod && framePending.compareAndSet(false, true)) {
+
+				lastFrame = now;
+				SwingUtilities.invokeLater(() -> {
+					synchronized (machine) {
+						framePending.set(false);
+						mediator.showProgress();
+					}
+				});
+
+			}
+
+		}
+
+		int end = status;
+		SwingUtilities.invokeLater(() -> mediator.executionEnded(end));
+
+	}
+
+}
@@ -12,9 +12,9 @@ import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import project.Assembler;
-import project.Loader;
+import project.ProgramCache;
 import project.Machine;
-import project.FullAssembler;
+import project.IncrementalAssembler;
 
 public class IOUnit {
 	private Mediator mediator;
@@ -24,7 +24,9 @@ public class IOUnit {
 	private String executableDir; 
 	private Properties properties = null;
 	private File currentlyExecutingFile;
-	private Assembler assembler = new FullAssembler(); 
+	private Assembler assembler = new IncrementalAssembler(); 
+	// Reload and loading the same file again copy the decoded program
+	private ProgramCache programs = new ProgramCache(ProgramCache.DEFAULT_BYTES);
 
 	public IOUnit(Mediator view) {
 		mediator = view;
@@ -140,6 +142,8 @@ public class IOUnit {
 				}
 				StringBuilder errors = new StringBuilder();
 				int errorLine = assembler.assemble(source.getAbsolutePath(), outputExe.getAbsolutePath(), errors); 
+				// the next Load must read the new file, even if its size and time look unchanged
+				programs.forget(outputExe);
 				if (errorLine == 0){
 					JOptionPane.showMessageDialog(
 							mediator.getFrame(), 
@@ -214,7 +218,7 @@ public class IOUnit {
 		mediator.clear();
 		String str = "";
 		try {
-			str = Loader.load(machine, currentlyExecutingFile);
+			str = programs.load(machine, currentlyExecutingFile);
 			mediator.makeReady("Load Code");
 		} catch (NumberFormatException e ) {
 			JOptionPane.showMessageDialog(
@@ -10,12 +10,9 @@ import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
-import project.CodeAccessException;
-import project.DivideByZeroException;
-import project.IllegalInstructionException;
 import project.Machine;
 import project.Memory;
-import project.ParityCheckException;
+import project.Status;
 
 public class Mediator {
 
@@ -30,15 +27,18 @@ public class Mediator {
 	private ProcessorViewPanel processorPanel;
 	private IOUnit ioUnit;
 	private MenuBarBuilder menuBuilder;
+	private ExecutionEngine engine = new ExecutionEngine(this);
 	
 	private States currentState = States.NOTHING_LOADED;
 	
 	private void notify(String str) {
 		
 		codeViewPanel.update(str);
-		memoryViewPanel1.update(str);
-		memoryViewPanel2.update(str);
-		memoryViewPanel3.update(str);
+		// one frame of data writes per repaint, which all three panels draw up to
+		int dataFrame = machine.markFrame();
+		memoryViewPanel1.update(str, dataFrame);
+		memoryViewPanel2.update(str, dataFrame);
+		memoryViewPanel3.update(str, dataFrame);
 		controlPanel.update();
 		processorPanel.update();
 		
@@ -50,9 +50,10 @@ public class Mediator {
 		ioUnit = new IOUnit(this);
 		ioUnit.initialize();
 		codeViewPanel = new CodeViewPanel(machine);
-		memoryViewPanel1 = new MemoryViewPanel(machine, 0, 160);
-		memoryViewPanel2 = new MemoryViewPanel(machine, 160, Memory.DATA_SIZE/2);
-		memoryViewPanel3 = new MemoryViewPanel(machine, Memory.DATA_SIZE/2, Memory.DATA_SIZE);
+		int half = machine.getDataSize()/2;
+		memoryViewPanel1 = new MemoryViewPanel(machine, 0, Math.min(160, half));
+		memoryViewPanel2 = new MemoryViewPanel(machine, Math.min(160, half), half);
+		memoryViewPanel3 = new MemoryViewPanel(machine, half, machine.getDataSize());
 		controlPanel = new ControlPanel(this);
 		processorPanel = new ProcessorViewPanel(machine);
 		menuBuilder = new MenuBarBuilder(this);
@@ -90,65 +91,13 @@ public class Mediator {
 	public void step() {
 		
 		if (currentState != States.PROGRAM_HALTED && 
-				currentState != States.NOTHING_LOADED) {
-			try {
-				machine.step();
-			} catch (CodeAccessException e) {
-				JOptionPane.showMessageDialog(frame, 
-					"Illegal access to code from line " + machine.getPC() + "\n"
-							+ "Exception message: " + e.getMessage(),
-							"Run time error",
-							JOptionPane.OK_OPTION);
-				System.out.println("Illegal access to code from line " + machine.getPC()); // just for debugging
-				System.out.println("Exception message: " + e.getMessage()); // just for debugging			
-			} catch(ArrayIndexOutOfBoundsException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Array index out of bounds on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Array index out of bounds on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(NullPointerException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Null pointer on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Null pointer on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(ParityCheckException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Bad parity on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Bad parity on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(IllegalInstructionException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Illegal instruction on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Illegal instruction line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(IllegalArgumentException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Illegal argument on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Illegal argument on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(DivideByZeroException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Cannot divide by zero from line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Cannot divide by zero from line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
+				currentState != States.NOTHING_LOADED && !engine.isRunning()) {
+			int status = machine.tryStep();
+			if (status == Status.HALTED) {
+				machine.halt();
+			} else if (Status.isFault(status)) {
+				machine.halt();
+				showFault(status);
 			}
 			notify("");
 		}
@@ -238,74 +187,77 @@ public class Mediator {
 	
 	public void execute() {
 		
-		while (currentState != States.PROGRAM_HALTED && 
-				currentState != States.NOTHING_LOADED) {
-			try {
-				machine.step();
-			} catch (CodeAccessException e) {
-				JOptionPane.showMessageDialog(frame, 
-					"Illegal access to code from line " + machine.getPC() + "\n"
-							+ "Exception message: " + e.getMessage(),
-							"Run time error",
-							JOptionPane.OK_OPTION);
-				System.out.println("Illegal access to code from line " + machine.getPC()); // just for debugging
-				System.out.println("Exception message: " + e.getMessage()); // just for debugging			
-			} catch(ArrayIndexOutOfBoundsException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Array index out of bounds on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Array index out of bounds on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(NullPointerException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Null pointer on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Null pointer on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(ParityCheckException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Bad parity on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Bad parity on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(IllegalInstructionException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Illegal instruction on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Illegal instruction line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(IllegalArgumentException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Illegal argument on line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Illegal argument on line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			} catch(DivideByZeroException e) {
-				JOptionPane.showMessageDialog(frame, 
-						"Cannot divide by zero from line " + machine.getPC() + "\n"
-								+ "Exception message: " + e.getMessage(),
-								"Run time error",
-								JOptionPane.OK_OPTION);
-					System.out.println("Cannot divide by zero from line " + machine.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage()); // just for debugging		
-			}
-			
+		if (currentState == States.PROGRAM_HALTED || 
+				currentState == States.NOTHING_LOADED || engine.isRunning()) {
+			return;
 		}
 		
+		tUnit.setAutoStepOn(false);
+		setCurrentState(States.EXECUTING);
+		engine.start(machine);
+		
+	}
+	
+	public void stop() {
+		
+		engine.stop();
+		
+	}
+	
+	// called on the EDT by the ExecutionEngine, which holds the machine's lock
+	void showProgress() {
+		
 		notify("");
 		
 	}
 	
+	// called on the EDT by the ExecutionEngine once it has stopped
+	void executionEnded(int status) {
+		
+		if (status == Status.HALTED) {
+			machine.halt();
+		} else if (Status.isFault(status)) {
+			machine.halt();
+			showFault(status);
+		} else {
+			setCurrentState(States.PROGRAM_LOADED_NOT_AUTOSTEPPING);
+		}
+		notify("");
+		
+	}
+	
+	// the run time error dialog for a fault status returned by Machine.tryStep
+	private void showFault(int status) {
+		
+		String where;
+		switch (status) {
+		case Status.CODE_ACCESS:
+			where = "Illegal access to code from line ";
+			break;
+		case Status.DATA_ACCESS:
+			where = "Array index out of bounds on line ";
+			break;
+		case Status.PARITY:
+			where = "Bad parity on line ";
+			break;
+		case Status.DIVIDE_BY_ZERO:
+			where = "Cannot divide by zero from line ";
+			break;
+		default:
+			where = "Illegal instruction on line ";
+		}
+		String message = machine.toException(status).getMessage();
+		
+		JOptionPane.showMessageDialog(frame, 
+				where + machine.getPC() + "\n"
+						+ "Exception message: " + message,
+						"Run time error",
+						JOptionPane.OK_OPTION);
+		System.out.println(where + machine.getPC()); // just for debugging
+		System.out.println("Exception message: " + message); // just for debugging
+		
+	}
+	
 	public Machine getMachine() {
 		
 		return machine;
@@ -324,13 +276,19 @@ public class Mediator {
 		
 	}
 	
+	/**
+	 * Optional arguments: the number of data cells and of code slots, 
+	 * Memory.DATA_SIZE and Memory.CODE_SIZE by default.
+	 */
 	public static void main(String[] args) {
+		int dataSize = args.length > 0 ? Integer.parseInt(args[0]) : Memory.DATA_SIZE;
+		int codeSize = args.length > 1 ? Integer.parseInt(args[1]) : Memory.CODE_SIZE;
 		javax.swing.SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				Mediator mediator = new Mediator();
 				Machine machine = 
 					new Machine(() -> 
-					mediator.setCurrentState(States.PROGRAM_HALTED));
+					mediator.setCurrentState(States.PROGRAM_HALTED), dataSize, codeSize);
 				mediator.setMachine(machine);
 				mediator.createAndShowGUI();
 			}
@@ -2,7 +2,9 @@ package projectview;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.GridLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.io.File;
 
@@ -13,116 +15,200 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
-import javax.swing.JTextField;
+import javax.swing.JTable;
 import javax.swing.border.Border;
 import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
 
 import project.Loader;
 import project.Machine;
 
+/**
+ * Shows the data cells [lower, upper) in a JTable. update() copies the
+ * visible rows' values while the machine is locked, and the table model
+ * paints from that copy, so only the visible rows cost anything, however
+ * many cells the panel covers, and a paint never reads memory that the
+ * ExecutionEngine is writing.
+ */
 public class MemoryViewPanel {
 
+	private static final int DECIMAL = 1;
+	private static final int HEX = 2;
+
 	private Machine machine; // import from project
 	private JScrollPane scroller; // import from javax.swing
-	private JTextField[] dataHex; // import from javax.swing
-	private JTextField[] dataDecimal; // import from javax.swing
+	private JTable table; // import from javax.swing
+	private DataModel model = new DataModel();
 	private int lower = -1;
 	private int upper = -1;
 	private int previousColor = -1;
-	
+	private int frame = -1; // the data frame last drawn, -1 until the first update
+	private int[] changed;
+	// the values of rows [cacheFirst, cacheFirst + cache.length), as read under the machine's lock
+	private int cacheFirst;
+	private int[] cache = new int[0];
+
 	public MemoryViewPanel(Machine m, int low, int up) {
 		machine = m;
 		lower = low;
 		upper = up;
+		changed = new int[up - low];
 	}
-	
+
 	public JComponent createMemoryDisplay() {
-		
+
 		JPanel panel = new JPanel();
-		
+
 		panel.setLayout(new BorderLayout());
-		
+
 		Border border = BorderFactory.createTitledBorder(
 		        BorderFactory.createLineBorder(Color.BLACK),
 		        "Data Memory View ["+ lower +"-"+ upper +"]",
 		        TitledBorder.CENTER, TitledBorder.DEFAULT_POSITION);
-		
+
 		panel.setBorder(border);
-		
-		
-		JPanel innerPanel = new JPanel();
-		
-		innerPanel.setLayout(new BorderLayout());
-		
-		JPanel numPanel = new JPanel();
-		JPanel decimalPanel = new JPanel();
-		JPanel hexPanel = new JPanel();
-		
-		numPanel.setLayout(new GridLayout(0,1));
-		decimalPanel.setLayout(new GridLayout(0,1));
-		hexPanel.setLayout(new GridLayout(0,1));
-		
-		innerPanel.add(numPanel, BorderLayout.LINE_START);
-		innerPanel.add(decimalPanel, BorderLayout.CENTER); 
-		innerPanel.add(hexPanel, BorderLayout.LINE_END);
-		
-		dataHex = new JTextField[upper - lower];
-		dataDecimal = new JTextField[upper - lower];
-		
-		for (int i = lower; i < upper; i++) {
-			
-			numPanel.add(new JLabel(i+": ", JLabel.RIGHT));
-			dataDecimal[i - lower] = new JTextField(10);
-			dataHex[i-lower] = new JTextField(10);
-			decimalPanel.add(dataDecimal[i-lower]); 
-			hexPanel.add(dataHex[i-lower]);
-			
-		}
-		
-		scroller = new JScrollPane(innerPanel);
+
+		table = new JTable(model);
+		table.setTableHeader(null);
+		table.setCellSelectionEnabled(false);
+		table.setFocusable(false);
+		table.setDefaultRenderer(Object.class, new HighlightRenderer());
+		table.getColumnModel().getColumn(0).setPreferredWidth(50);
+		table.getColumnModel().getColumn(DECIMAL).setPreferredWidth(100);
+		table.getColumnModel().getColumn(HEX).setPreferredWidth(100);
+		table.setPreferredScrollableViewportSize(new Dimension(250, 400));
+
+		scroller = new JScrollPane(table);
 		panel.add(scroller);
 		return panel;
-		
+
 	}
-	
-	public void update(String str) {
-		for(int i = lower; i < upper; i++) {
-			int val = machine.getData(i);
-			dataDecimal[i-lower].setText("" + val);
-			String s = Integer.toHexString(val);
-			if(val < 0)
-				s = "-" + Integer.toHexString(-val);
-			dataHex[i-lower].setText(s.toUpperCase());
+
+	/**
+	 * @param marked the frame machine.markFrame() returned for this repaint
+	 */
+	public void update(String str, int marked) {
+		// only the visible cells written since the last update are redrawn,
+		// the rest are read afresh when they are scrolled into view
+		int drawn = frame;
+		frame = marked;
+		if(table != null) {
+			Rectangle view = scroller.getViewport().getViewRect();
+			int first = table.rowAtPoint(new Point(0, view.y));
+			int last = table.rowAtPoint(new Point(0, view.y + view.height - 1));
+			if(last < 0) last = model.getRowCount() - 1;
+			if(first >= 0 && view.height > 0) {
+				int count = machine.getChangedData(drawn, lower + first, lower + last + 1, changed);
+				for(int k = 0; k < count; k++) {
+					model.fireTableCellUpdated(changed[k] - lower, DECIMAL);
+					model.fireTableCellUpdated(changed[k] - lower, HEX);
+				}
+			}
 		}
 		if(str != null && str.equals("Clear")) {
 			if(lower <= previousColor && previousColor < upper) {
-				dataDecimal[previousColor-lower].setBackground(Color.WHITE);
-				dataHex[previousColor-lower].setBackground(Color.WHITE);
+				int row = previousColor - lower;
 				previousColor = -1;
+				model.fireTableRowsUpdated(row, row);
 			}
 		} else {
-			if(previousColor  >= lower && previousColor < upper) {
-				dataDecimal[previousColor-lower].setBackground(Color.WHITE);
-				dataHex[previousColor-lower].setBackground(Color.WHITE);
-			}
+			int old = previousColor;
 			previousColor = machine.getChangedDataIndex();
-			if(previousColor  >= lower && previousColor < upper) {
-				dataDecimal[previousColor-lower].setBackground(Color.YELLOW);
-				dataHex[previousColor-lower].setBackground(Color.YELLOW);
-			} 
+			if(old != previousColor) {
+				if(old >= lower && old < upper)
+					model.fireTableRowsUpdated(old - lower, old - lower);
+				if(previousColor >= lower && previousColor < upper)
+					model.fireTableRowsUpdated(previousColor - lower, previousColor - lower);
+			}
 		}
 		if(scroller != null && machine != null) {
 			JScrollBar bar= scroller.getVerticalScrollBar();
 			if (machine.getChangedDataIndex() >= lower &&
-					machine.getChangedDataIndex() < upper &&
-					// the following just checks createMemoryDisplay has run
-					dataDecimal != null) {
-				Rectangle bounds = dataDecimal[machine.getChangedDataIndex()-lower].getBounds();
+					machine.getChangedDataIndex() < upper) {
+				Rectangle bounds = table.getCellRect(machine.getChangedDataIndex()-lower, DECIMAL, true);
 				bar.setValue(Math.max(0, bounds.y - 15*bounds.height));
 			}
 		}
+		if(table != null) {
+			cacheView(-1);
+		}
+	}
+
+	// copies the rows in view, and row if it is not, under the machine's lock;
+	// the EDT only waits for the end of the engine's current slice
+	private void cacheView(int row) {
+		Rectangle view = scroller.getViewport().getViewRect();
+		int first = table.rowAtPoint(new Point(0, view.y));
+		int last = table.rowAtPoint(new Point(0, view.y + view.height - 1));
+		if(last < 0) last = model.getRowCount() - 1;
+		if(first < 0 || view.height <= 0) {
+			// nothing in view, so the rows cached already are read again
+			first = row >= 0 ? row : cache.length > 0 ? cacheFirst : -1;
+			last = row >= 0 ? row : cacheFirst + cache.length - 1;
+		}
+		if(row >= 0) {
+			first = Math.min(first, row);
+			last = Math.max(last, row);
+		}
+		if(first < 0) return;
+		synchronized(machine) {
+			if(cache.length != last - first + 1) cache = new int[last - first + 1];
+			cacheFirst = first;
+			for(int k = 0; k < cache.length; k++) {
+				cache[k] = machine.getData(lower + first + k);
+			}
+		}
 	}
-	
+
+	private class DataModel extends AbstractTableModel {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public int getRowCount() {
+			return upper - lower;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return 3;
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			int i = lower + row;
+			if(column == 0)
+				return i + ": ";
+			// a row scrolled into view since the last update is read then
+			if(row < cacheFirst || row >= cacheFirst + cache.length)
+				cacheView(row);
+			int val = cache[row - cacheFirst];
+			if(column == DECIMAL)
+				return "" + val;
+			String s = Integer.toHexString(val);
+			if(val < 0)
+				s = "-" + Integer.toHexString(-val);
+			return s.toUpperCase();
+		}
+
+	}
+
+	private class HighlightRenderer extends DefaultTableCellRenderer {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Component getTableCellRendererComponent(JTable table, Object value,
+				boolean isSelected, boolean hasFocus, int row, int column) {
+			super.getTableCellRendererComponent(table, value, false, false, row, column);
+			setHorizontalAlignment(column == 0 ? JLabel.RIGHT : JLabel.LEFT);
+			setBackground(column != 0 && row + lower == previousColor ? Color.YELLOW : Color.WHITE);
+			return this;
+		}
+
+	}
+
 	public static void main(String[] args) throws Exception {
 		Machine machine = new Machine(() -> System.exit(-1));
 		MemoryViewPanel panel = new MemoryViewPanel(machine, 0, 500);
@@ -133,7 +219,7 @@ public class MemoryViewPanel {
 		frame.add(panel.createMemoryDisplay());
 		frame.setVisible(true);
 		System.out.println(Loader.load(machine, new File("test.pexe")));
-		panel.update("");
+		panel.update("", machine.markFrame());
 	}
-	
+
 }
@@ -11,6 +11,19 @@ public enum States {
 			states[RUN] = true;
 			states[RUNNING] = true;
 			states[STEP] = false;
+			states[STOP] = false;
+		}
+	}, 
+	EXECUTING {
+		public void enter() {
+			states[ASSEMBLE] = false;
+			states[CLEAR] = false;
+			states[LOAD] = false;
+			states[RELOAD] = false;
+			states[RUN] = false;
+			states[RUNNING] = true;
+			states[STEP] = false;
+			states[STOP] = true;
 		}
 	}, 
 	NOTHING_LOADED {
@@ -22,6 +35,7 @@ public enum States {
 			states[RUN] = false;
 			states[RUNNING] = false;
 			states[STEP] = false;
+			states[STOP] = false;
 		}
 	}, 
 	PROGRAM_HALTED {
@@ -33,6 +47,7 @@ public enum States {
 			states[RUN] = false;
 			states[RUNNING] = false;
 			states[STEP] = false;
+			states[STOP] = false;
 		}
 	}, 
 	PROGRAM_LOADED_NOT_AUTOSTEPPING {
@@ -44,6 +59,7 @@ public enum States {
 			states[RUN] = true;
 			states[RUNNING] = false;
 			states[STEP] = true;
+			states[STOP] = false;
 		}
 	};
 	
@@ -54,8 +70,9 @@ public enum States {
 	private static final int RUN = 4;
 	private static final int RUNNING = 5;
 	private static final int STEP = 6;
+	private static final int STOP = 7;
 	
-	boolean[] states = new boolean[7];
+	boolean[] states = new boolean[8];
 	
 	public abstract void enter();
 	
@@ -80,5 +97,8 @@ public enum States {
 	public boolean getStepActive() {
 	    return states[STEP];
 	}
+	public boolean getStopActive() {
+	    return states[STOP];
+	}
 	
 }